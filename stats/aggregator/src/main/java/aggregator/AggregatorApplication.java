@@ -4,6 +4,8 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Profiles;
 import org.springframework.kafka.annotation.EnableKafka;
 
 @SpringBootApplication
@@ -12,6 +14,10 @@ import org.springframework.kafka.annotation.EnableKafka;
 @EnableKafka
 public class AggregatorApplication {
     public static void main(String[] args) {
-        SpringApplication.run(AggregatorApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(AggregatorApplication.class, args);
+        // -- Пакетный пересчет выполняется при запуске, после него приложение завершается.
+        if (context.getEnvironment().acceptsProfiles(Profiles.of("recompute"))) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 }
\ No newline at end of file
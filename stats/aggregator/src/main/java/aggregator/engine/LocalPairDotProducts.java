@@ -0,0 +1,72 @@
+package aggregator.engine;
+
+import aggregator.matrix.CellConsumer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Однопоточное хранилище скалярных произведений: один шард, пересчет в потоке вызова.
+ */
+public class LocalPairDotProducts implements PairDotProducts {
+    private final PairShard shard;
+    private final PairShard[] shards;
+
+    public LocalPairDotProducts() {
+        this(new HashSparseMatrix());
+    }
+
+    // -- Хранилище поверх готовой матрицы скалярных произведений; матрица не копируется.
+    public LocalPairDotProducts(SparseMatrix dotProducts) {
+        this.shard = new PairShard(dotProducts);
+        this.shards = new PairShard[]{shard};
+    }
+
+    @Override
+    public void weightChanged(long userId, long eventId, double oldWeight) {
+        shard.weightChanged(userId, eventId, oldWeight);
+    }
+
+    @Override
+    public List<EventSimilarityAvro> flush(SparseMatrix userEventWeights, PairScorer scorer, Instant timestamp) {
+        try {
+            shard.route(userEventWeights, shards);
+            return shard.apply(scorer, timestamp);
+        } finally {
+            shard.discardPending();
+        }
+    }
+
+    @Override
+    public double get(long eventA, long eventB) {
+        return shard.get(eventA, eventB);
+    }
+
+    @Override
+    public void put(long eventA, long eventB, double dotProduct) {
+        shard.put(eventA, eventB, dotProduct);
+    }
+
+    @Override
+    public void remove(long eventA, long eventB) {
+        shard.remove(eventA, eventB);
+    }
+
+    @Override
+    public void forEach(CellConsumer action) {
+        shard.forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return shard.size();
+    }
+
+    @Override
+    public void close() {
+        // -- Потоков и внешних ресурсов нет.
+    }
+}
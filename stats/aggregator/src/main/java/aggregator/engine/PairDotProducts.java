@@ -0,0 +1,41 @@
+package aggregator.engine;
+
+import aggregator.matrix.CellConsumer;
+import aggregator.matrix.SparseMatrix;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Хранилище скалярных произведений пар событий (eventA < eventB).
+ * Изменения весов копятся через {@link #weightChanged} и применяются в {@link #flush} по итоговым весам пачки:
+ * вклад пользователя в пару — минимум двух его весов, поэтому пара получает одно изменение на пользователя,
+ * сколько бы раз его веса ни менялись внутри пачки, и результат не зависит от порядка действий.
+ */
+public interface PairDotProducts extends AutoCloseable {
+    // -- Вес пользователя для события меняется с oldWeight (0, если веса не было); новый вес берется
+    // -- из строки пользователя при flush.
+    void weightChanged(long userId, long eventId, double oldWeight);
+
+    // -- Применяет накопленные изменения по строкам userEventWeights {userId -> {eventId -> weight}} и возвращает
+    // -- оценки scorer для всех затронутых пар, упорядоченные по (eventA, eventB); пары с оценкой NaN пропускаются.
+    // -- Пока идет flush, userEventWeights и все, что читает scorer, менять нельзя.
+    List<EventSimilarityAvro> flush(SparseMatrix userEventWeights, PairScorer scorer, Instant timestamp);
+
+    double get(long eventA, long eventB);
+
+    // -- Записывает значение пары в обход накопленных изменений; используется при восстановлении из снимка.
+    void put(long eventA, long eventB, double dotProduct);
+
+    // -- Удаляет пару; используется при выгрузке холодных событий. Как и put, вызывается только между flush
+    // -- и следующим weightChanged.
+    void remove(long eventA, long eventB);
+
+    void forEach(CellConsumer action);
+
+    long size();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,8 @@
+package aggregator.engine;
+
+// -- Оценка схожести пары по ее скалярному произведению; NaN — пару не отправлять.
+// -- Вызывается из потоков шардов одновременно и должна только читать состояние.
+@FunctionalInterface
+public interface PairScorer {
+    double score(long eventA, long eventB, double dotProduct);
+}
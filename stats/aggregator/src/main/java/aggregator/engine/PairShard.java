@@ -0,0 +1,150 @@
+package aggregator.engine;
+
+import aggregator.matrix.CellConsumer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Шард движка скалярных произведений. Владеет парами, меньшее событие которых попадает в шард по хешу,
+ * и изменениями весов пользователей, которые попадают в шард по хешу userId.
+ * Пересчет пачки идет в две фазы. В {@link #route} шард обходит строки только своих пользователей, считает
+ * изменения пар и передает их шардам-владельцам пакетами через lock-free очереди. В {@link #apply} шард
+ * применяет пришедшие к нему пакеты к своей матрице и оценивает затронутые пары. Каждая строка пользователя
+ * обходится один раз при любом числе шардов, а каждую матрицу меняет только ее шард.
+ */
+class PairShard {
+    static final Comparator<EventSimilarityAvro> ORDER = Comparator
+            .comparingLong(EventSimilarityAvro::getEventA)
+            .thenComparingLong(EventSimilarityAvro::getEventB);
+
+    // -- Структура: {eventA -> {eventB -> dotProduct}}
+    private final SparseMatrix dotProducts;
+    // -- Изменения весов пользователей шарда с прошлого пересчета.
+    // -- Структура: {userId -> {eventId -> вес до изменений}}
+    private final SparseMatrix changes = new HashSparseMatrix();
+    // -- Пакеты изменений пар этого шарда от всех шардов, заполняется в фазе route.
+    private final Queue<UpdateChunk> inbox = new ConcurrentLinkedQueue<>();
+
+    PairShard(SparseMatrix dotProducts) {
+        this.dotProducts = dotProducts;
+    }
+
+    static int shardOf(long id, int shardCount) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        long h = id * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) ((h & Long.MAX_VALUE) % shardCount);
+    }
+
+    // -- Запоминает вес до первого изменения в пачке; вызывается из потока слушателя.
+    void weightChanged(long userId, long eventId, double oldWeight) {
+        if (!changes.contains(userId, eventId)) {
+            changes.put(userId, eventId, oldWeight);
+        }
+    }
+
+    // -- Фаза 1: для каждого изменившегося веса своих пользователей считает изменение пар с другими событиями
+    // -- пользователя и отправляет его шарду, которому принадлежит пара. Вклад пользователя в пару — минимум
+    // -- двух его весов, поэтому изменение считается по весам до пачки и итоговым весам пачки.
+    // -- userEventWeights во время фазы только читается, поэтому шарды обходят его одновременно.
+    void route(SparseMatrix userEventWeights, PairShard[] shards) {
+        UpdateChunk[] outbox = new UpdateChunk[shards.length];
+        changes.forEach((userId, eventId, oldWeight) -> {
+            double newWeight = userEventWeights.get(userId, eventId, 0.0);
+            userEventWeights.forEachInRow(userId, (otherEventId, otherWeight) -> {
+                if (otherEventId == eventId) {
+                    return;
+                }
+                double otherOldWeight = otherWeight;
+                if (changes.contains(userId, otherEventId)) {
+                    // -- Изменились оба веса пары: она учитывается один раз, при обходе меньшего события.
+                    if (eventId > otherEventId) {
+                        return;
+                    }
+                    otherOldWeight = changes.get(userId, otherEventId, 0.0);
+                }
+                long eventA = Math.min(eventId, otherEventId);
+                long eventB = Math.max(eventId, otherEventId);
+                double delta = Math.min(newWeight, otherWeight) - Math.min(oldWeight, otherOldWeight);
+                int target = shardOf(eventA, shards.length);
+                UpdateChunk chunk = outbox[target];
+                if (chunk == null) {
+                    chunk = new UpdateChunk();
+                    outbox[target] = chunk;
+                }
+                chunk.add(eventA, eventB, delta);
+                if (chunk.isFull()) {
+                    shards[target].inbox.offer(chunk);
+                    outbox[target] = null;
+                }
+            });
+        });
+        changes.clear();
+        for (int target = 0; target < outbox.length; target++) {
+            if (outbox[target] != null) {
+                shards[target].inbox.offer(outbox[target]);
+            }
+        }
+    }
+
+    // -- Фаза 2: применяет пакеты из очереди шарда и возвращает оценки scorer для затронутых пар,
+    // -- упорядоченные по (eventA, eventB); пары с оценкой NaN пропускаются.
+    List<EventSimilarityAvro> apply(PairScorer scorer, Instant timestamp) {
+        // -- Структура: {eventA -> {eventB -> dotProduct}}
+        SparseMatrix touched = new HashSparseMatrix();
+        UpdateChunk chunk;
+        while ((chunk = inbox.poll()) != null) {
+            for (int i = 0; i < chunk.size; i++) {
+                long eventA = chunk.eventsA[i];
+                long eventB = chunk.eventsB[i];
+                touched.put(eventA, eventB, dotProducts.add(eventA, eventB, chunk.deltas[i]));
+            }
+        }
+
+        List<EventSimilarityAvro> similarities = new ArrayList<>((int) touched.size());
+        touched.forEach((eventA, eventB, dotProduct) -> {
+            double score = scorer.score(eventA, eventB, dotProduct);
+            if (!Double.isNaN(score)) {
+                similarities.add(new EventSimilarityAvro(eventA, eventB, score, timestamp));
+            }
+        });
+        similarities.sort(ORDER);
+        return similarities;
+    }
+
+    // -- Сбрасывает непримененные изменения после ошибки пересчета, чтобы они не попали в следующую пачку.
+    void discardPending() {
+        changes.clear();
+        inbox.clear();
+    }
+
+    double get(long eventA, long eventB) {
+        return dotProducts.get(eventA, eventB, 0.0);
+    }
+
+    void put(long eventA, long eventB, double dotProduct) {
+        dotProducts.put(eventA, eventB, dotProduct);
+    }
+
+    void remove(long eventA, long eventB) {
+        dotProducts.remove(eventA, eventB);
+    }
+
+    void forEach(CellConsumer action) {
+        dotProducts.forEach(action);
+    }
+
+    long size() {
+        return dotProducts.size();
+    }
+}
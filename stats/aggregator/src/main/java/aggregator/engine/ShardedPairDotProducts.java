@@ -0,0 +1,162 @@
+package aggregator.engine;
+
+import aggregator.matrix.CellConsumer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Скалярные произведения пар, разделенные на N шардов: пара принадлежит шарду по хешу меньшего события,
+ * изменение веса — шарду по хешу пользователя. Поток слушателя только раскладывает изменившиеся веса
+ * по шардам. При flush шарды в две фазы ({@link PairShard#route}, затем {@link PairShard#apply}) обходят строки
+ * своих пользователей, пересылают изменения пар владельцам через lock-free очереди, применяют пришедшие
+ * изменения и оценивают свои пары. Шард 0 работает в потоке слушателя, шарды 1..N-1 — в рабочих потоках.
+ * Каждую матрицу меняет только ее шард, а общее состояние во время flush только читается, поэтому
+ * блокировки не нужны. Слушатель затем сливает упорядоченные списки оценок шардов.
+ */
+@Slf4j
+public class ShardedPairDotProducts implements PairDotProducts {
+    private final PairShard[] shards;
+    private final ExecutorService workers;
+
+    public ShardedPairDotProducts(int shardCount) {
+        this.shards = new PairShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new PairShard(new HashSparseMatrix());
+        }
+        AtomicInteger threads = new AtomicInteger(1);
+        this.workers = Executors.newFixedThreadPool(shardCount - 1, task -> {
+            Thread thread = new Thread(task, "aggregator-shard-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Запущено {} шардов для скалярных произведений пар событий", shardCount);
+    }
+
+    @Override
+    public void weightChanged(long userId, long eventId, double oldWeight) {
+        shards[PairShard.shardOf(userId, shards.length)].weightChanged(userId, eventId, oldWeight);
+    }
+
+    @Override
+    public List<EventSimilarityAvro> flush(SparseMatrix userEventWeights, PairScorer scorer, Instant timestamp) {
+        try {
+            // -- Вторая фаза начинается, только когда все шарды закончили первую: очереди заполнены целиком.
+            onAllShards(shard -> {
+                shard.route(userEventWeights, shards);
+                return null;
+            });
+            List<EventSimilarityAvro> similarities = new ArrayList<>();
+            for (List<EventSimilarityAvro> shardSimilarities : onAllShards(shard -> shard.apply(scorer, timestamp))) {
+                similarities.addAll(shardSimilarities);
+            }
+            // -- Списки шардов уже упорядочены, сортировка только сливает их.
+            similarities.sort(PairShard.ORDER);
+            return similarities;
+        } finally {
+            for (PairShard shard : shards) {
+                shard.discardPending();
+            }
+        }
+    }
+
+    @Override
+    public double get(long eventA, long eventB) {
+        return shardFor(eventA).get(eventA, eventB);
+    }
+
+    @Override
+    public void put(long eventA, long eventB, double dotProduct) {
+        shardFor(eventA).put(eventA, eventB, dotProduct);
+    }
+
+    @Override
+    public void remove(long eventA, long eventB) {
+        shardFor(eventA).remove(eventA, eventB);
+    }
+
+    @Override
+    public void forEach(CellConsumer action) {
+        for (PairShard shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (PairShard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private PairShard shardFor(long eventA) {
+        return shards[PairShard.shardOf(eventA, shards.length)];
+    }
+
+    // -- Выполняет фазу на всех шардах и возвращает их результаты по порядку шардов. Возвращает управление,
+    // -- только когда завершились все шарды, даже если какой-то упал, чтобы после ошибки никто не менял состояние.
+    private <T> List<T> onAllShards(Function<PairShard, T> phase) {
+        List<Future<T>> pending = new ArrayList<>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) {
+            PairShard shard = shards[i];
+            pending.add(workers.submit(() -> phase.apply(shard)));
+        }
+
+        List<T> results = new ArrayList<>(shards.length);
+        RuntimeException failure = null;
+        try {
+            results.add(phase.apply(shards[0]));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (Future<T> result : pending) {
+            try {
+                results.add(awaitQuietly(result));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IllegalStateException("Ошибка при пересчете пар в шарде", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    // -- Шард нельзя бросить посреди пересчета: прерывание запоминается и восстанавливается после ожидания.
+    private static <T> T awaitQuietly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
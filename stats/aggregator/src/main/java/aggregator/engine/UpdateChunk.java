@@ -0,0 +1,26 @@
+package aggregator.engine;
+
+/**
+ * Пакет изменений скалярных произведений для одного шарда на параллельных примитивных массивах.
+ * Через очередь шарда передается пакет целиком, а не отдельные изменения. Пакет заполняет один поток,
+ * а после передачи в очередь читает только шард-получатель.
+ */
+class UpdateChunk {
+    static final int CAPACITY = 1024;
+
+    final long[] eventsA = new long[CAPACITY];
+    final long[] eventsB = new long[CAPACITY];
+    final double[] deltas = new double[CAPACITY];
+    int size;
+
+    void add(long eventA, long eventB, double delta) {
+        eventsA[size] = eventA;
+        eventsB[size] = eventB;
+        deltas[size] = delta;
+        size++;
+    }
+
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+}
@@ -8,6 +8,9 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.stats.avro.ActionTypeAvro;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 
 @Component
@@ -17,4 +20,112 @@ import java.util.Map;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class AggregatorProperties {
     Map<ActionTypeAvro, Double> weights;
+    Snapshot snapshot = new Snapshot();
+    Emission emission = new Emission();
+    TopK topK = new TopK();
+    Engine engine = new Engine();
+    Eviction eviction = new Eviction();
+    Recompute recompute = new Recompute();
+    Decay decay = new Decay();
+
+    // -- Настройки снимков состояния агрегатора на локальном диске.
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Snapshot {
+        boolean enabled = false;
+        Path directory = Path.of("/tmp/aggregator-snapshots");
+        // -- Как часто сохранять снимок, если с прошлого снимка были обработаны новые действия.
+        Duration interval = Duration.ofMinutes(5);
+        // -- Сколько последних снимков хранить на диске.
+        int retained = 2;
+    }
+
+    // -- Правила подавления незначительных изменений оценки схожести перед отправкой в Kafka.
+    // -- Нулевые значения отключают соответствующую проверку.
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Emission {
+        // -- Минимальное абсолютное изменение оценки относительно последней отправленной.
+        double minAbsoluteDelta = 0.0;
+        // -- Минимальное относительное изменение оценки (доля от последней отправленной).
+        double minRelativeDelta = 0.0;
+        // -- Подавленное изменение пары отправляется не позже чем через этот интервал после ее прошлой отправки,
+        // -- даже если пара больше не меняется.
+        Duration maxStaleness = Duration.ZERO;
+    }
+
+    // -- Режим, в котором по каждому событию хранятся и отправляются только K лучших соседей.
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class TopK {
+        boolean enabled = false;
+        int k = 20;
+    }
+
+    // -- Параллельный пересчет скалярных произведений пар событий.
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Engine {
+        // -- Число шардов с собственными рабочими потоками; 1 — пересчет в потоке слушателя.
+        int shards = 1;
+    }
+
+    // -- Выгрузка холодных событий из памяти в сегмент на диске.
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Eviction {
+        boolean enabled = false;
+        // -- Событие без новых действий дольше этого интервала выгружается; нулевое значение отключает проверку.
+        Duration idleTimeout = Duration.ofDays(30);
+        // -- Лимит ячеек весов в памяти; сверх него выгружаются давно не использованные события. 0 — без лимита.
+        long maxCells = 0;
+        // -- Как часто проверять события на выгрузку.
+        Duration checkInterval = Duration.ofMinutes(1);
+        Path directory = Path.of("/tmp/aggregator-spill");
+    }
+
+    // -- Пакетный пересчет всех оценок схожести по сохраненным действиям (профиль recompute).
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Recompute {
+        Source source = Source.TABLE;
+        // -- Подключение к базе анализатора с таблицей user_actions (source: TABLE).
+        String jdbcUrl;
+        String username;
+        String password;
+        // -- CSV-выгрузка user_id,event_id,action_type[,timestamp_ms], например через \copy ... CSV HEADER
+        // -- (source: FILE). Время действия в миллисекундах обязательно при включенном aggregator.decay.
+        Path file;
+        // -- Число потоков пересчета; 0 — по числу ядер.
+        int parallelism = 0;
+        // -- Сколько оценок отправляется в Kafka одним вызовом продюсера.
+        int batchSize = 1000;
+        // -- Сохранить пересчитанное состояние снимком в aggregator.snapshot.directory без смещений Kafka:
+        // -- агрегатор продолжит с закоммиченных смещений группы уже с новыми весами.
+        boolean writeSnapshot = true;
+
+        public enum Source {
+            TABLE,
+            FILE
+        }
+    }
+
+    // -- Экспоненциальное затухание весов действий со временем (forward decay от фиксированной эпохи).
+    @Getter
+    @Setter
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Decay {
+        boolean enabled = false;
+        // -- За это время вклад действия уменьшается вдвое.
+        Duration halfLife = Duration.ofDays(30);
+        // -- Точка отсчета множителей весов. Смена эпохи или halfLife меняет масштаб всех весов:
+        // -- снимки со старыми настройками не восстанавливаются, состояние пересчитывается профилем recompute.
+        Instant epoch = Instant.parse("2025-01-01T00:00:00Z");
+    }
 }
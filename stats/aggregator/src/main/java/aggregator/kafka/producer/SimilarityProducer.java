@@ -1,40 +1,118 @@
 package aggregator.kafka.producer;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Отправка оценок схожести в Kafka. Ключ записи — пара "eventA-eventB": все оценки пары попадают
+ * в одну партицию по порядку, а топик можно сжимать (cleanup.policy=compact) до последней оценки пары.
+ * Записи пачки уходят асинхронно и собираются продюсером в батчи по spring.kafka.producer.batch-size,
+ * linger.ms и compression-type. Вместо лога на каждую запись ведутся счетчики отправленных и неотправленных.
+ * Если задан spring.kafka.producer.transaction-id-prefix, продюсер транзакционный: слушатель отправляет оценки
+ * через sendInTransaction, а оценки хранятся до завершения транзакции. При откате они забираются
+ * {@link #discardUncommitted} и пересчитываются агрегатором со следующей пачкой, а не копятся в продюсере.
+ */
 @Component
 @Slf4j
 public class SimilarityProducer {
     private final KafkaTemplate<String, EventSimilarityAvro> kafkaTemplate;
     private final String topicName;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    // -- Оценки, отправленные в еще не завершенной транзакции. Структура: {ключ пары -> оценка}
+    private final Map<String, EventSimilarityAvro> uncommitted = new LinkedHashMap<>();
 
     public SimilarityProducer(KafkaTemplate<String, EventSimilarityAvro> kafkaTemplate,
+                              MeterRegistry meterRegistry,
                               @Value("${spring.kafka.producer.topic.events-similarity}") String topicName) {
         this.kafkaTemplate = kafkaTemplate;
         this.topicName = topicName;
+        this.sentCounter = Counter.builder("aggregator.similarity.sent")
+                .description("Оценки схожести, подтвержденные брокером")
+                .tag("topic", topicName)
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("aggregator.similarity.failed")
+                .description("Оценки схожести, которые не удалось отправить")
+                .tag("topic", topicName)
+                .register(meterRegistry);
+    }
+
+    public void sendSimilarityScores(List<EventSimilarityAvro> messages) {
+        log.debug("Отправка {} сообщений в топик '{}'", messages.size(), topicName);
+        // -- Вне транзакции слушателя (пакетный пересчет) транзакционный продюсер отправляет каждый вызов
+        // -- в собственной транзакции.
+        if (kafkaTemplate.isTransactional() && !kafkaTemplate.inTransaction()) {
+            kafkaTemplate.executeInTransaction(operations -> {
+                messages.forEach(this::send);
+                return null;
+            });
+            return;
+        }
+        for (EventSimilarityAvro message : messages) {
+            send(message);
+        }
+    }
+
+    public boolean isTransactional() {
+        return kafkaTemplate.isTransactional();
+    }
+
+    // -- Отправляет оценки в текущей транзакции и запоминает их до ее завершения.
+    public void sendInTransaction(List<EventSimilarityAvro> messages) {
+        log.debug("Отправка {} сообщений в топик '{}' в транзакции", messages.size(), topicName);
+        for (EventSimilarityAvro message : messages) {
+            uncommitted.put(key(message), message);
+            send(message);
+        }
+    }
+
+    // -- Вызывается после фиксации транзакции: отправленные в ней оценки доставлены.
+    public void markCommitted() {
+        uncommitted.clear();
+    }
+
+    // -- Вызывается после отката транзакции: отправленные в ней оценки отброшены брокером. Возвращает их,
+    // -- чтобы агрегатор пересчитал эти пары, и забывает, поэтому при повторных откатах оценки не накапливаются.
+    public List<EventSimilarityAvro> discardUncommitted() {
+        List<EventSimilarityAvro> discarded = List.copyOf(uncommitted.values());
+        uncommitted.clear();
+        return discarded;
+    }
+
+    // -- Есть ли оценки, которые еще не зафиксированы ни одной транзакцией.
+    public boolean hasUncommitted() {
+        return !uncommitted.isEmpty();
+    }
+
+    // -- Дожидается отправки всех накопленных в продюсере сообщений.
+    public void flush() {
+        kafkaTemplate.flush();
     }
 
-   public void sendSimilarityScores(List<EventSimilarityAvro> messages) {
-       log.debug("Отправка {} сообщений в топик '{}'", messages.size(), topicName);
-       for (EventSimilarityAvro message : messages) {
-           send(message);
-       }
-   }
     private void send(EventSimilarityAvro message) {
-        kafkaTemplate.send(topicName, message)
+        kafkaTemplate.send(topicName, key(message), message)
                 .whenComplete((result, exception) -> {
                     if (exception == null) {
-                        log.info("Оценка сходства успешно отправлена: message={}", message);
+                        sentCounter.increment();
                     } else {
+                        failedCounter.increment();
                         log.error("Ошибка при отправке оценки сходства в топик '{}': message={}",
                                 topicName, message, exception);
                     }
                 });
     }
+
+    // -- Пары приходят упорядоченными (eventA < eventB), поэтому у пары ровно один ключ.
+    private static String key(EventSimilarityAvro message) {
+        return message.getEventA() + "-" + message.getEventB();
+    }
 }
@@ -1,32 +1,128 @@
 package aggregator.listener;
 
+import aggregator.kafka.producer.SimilarityProducer;
 import aggregator.service.AggregatorService;
+import aggregator.snapshot.SnapshotService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
+import java.util.List;
+import java.util.Map;
+
 @Component
+@Profile("!recompute")
 @RequiredArgsConstructor
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @SuppressWarnings("unused")
-public class UserActionListener {
+public class UserActionListener implements ConsumerSeekAware {
     AggregatorService similarityService;
+    SnapshotService snapshotService;
+    SimilarityProducer producer;
 
+    // -- Слушатель получает всю пачку записей одного poll: агрегатор сначала применяет ее к матрицам,
+    // -- а затем отправляет по одной итоговой оценке на каждую затронутую пару событий.
+    // -- Размер пачки задается spring.kafka.consumer.max-poll-records.
     @KafkaListener(
             topics = "${spring.kafka.consumer.topic.user-actions}",
-            groupId = "${spring.kafka.consumer.group-id}"
+            groupId = "${spring.kafka.consumer.group-id}",
+            batch = "true"
     )
-    public void handleUserAction(UserActionAvro message) {
-        log.debug("Получено сообщение из Kafka: {}", message);
+    public void handleUserActions(List<ConsumerRecord<String, UserActionAvro>> records) {
+        log.debug("Получена пачка из {} сообщений из Kafka", records.size());
+        if (producer.isTransactional()) {
+            handleInTransaction(records);
+            return;
+        }
+        // -- Ошибка пересчета пробрасывается контейнеру: смещения пачки не фиксируются, и обработчик ошибок
+        // -- контейнера доставляет ее повторно. Веса применяются только при увеличении, поэтому повтор безопасен.
+        try {
+            similarityService.calculateSimilarities(records.stream()
+                    .map(ConsumerRecord::value)
+                    .toList());
+        } catch (RuntimeException e) {
+            log.error("Ошибка при обработке пачки из {} сообщений", records.size(), e);
+            throw e;
+        }
+        recordProcessed(records);
+        snapshotService.maybeSnapshot();
+    }
+
+    // -- Транзакционный режим (spring.kafka.producer.transaction-id-prefix): контейнер открывает транзакцию Kafka
+    // -- до вызова слушателя и после него фиксирует в ней смещения пачки, поэтому оценки и смещения
+    // -- либо записываются вместе, либо откатываются вместе. Ошибка пересчета, отправки или фиксации
+    // -- откатывает транзакцию, и контейнер доставляет пачку повторно. Веса применяются только при увеличении,
+    // -- поэтому повторная пачка не меняет матрицы, а пары оценок из откаченной транзакции агрегатор пересчитывает
+    // -- и отправляет с ней заново. Смещения для снимка учитываются только после фиксации.
+    private void handleInTransaction(List<ConsumerRecord<String, UserActionAvro>> records) {
+        // -- Синхронизация регистрируется до отправки: оценки, ушедшие до ошибки посреди пачки, тоже вернутся.
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    List<EventSimilarityAvro> aborted = producer.discardUncommitted();
+                    similarityService.requeue(aborted);
+                    log.warn("Транзакция пачки из {} сообщений не зафиксирована, {} оценок будут пересчитаны "
+                            + "и отправлены повторно", records.size(), aborted.size());
+                    return;
+                }
+                producer.markCommitted();
+                recordProcessed(records);
+                snapshotService.maybeSnapshot();
+            }
+        });
+        try {
+            producer.sendInTransaction(similarityService.applyActions(records.stream()
+                    .map(ConsumerRecord::value)
+                    .toList()));
+        } catch (RuntimeException e) {
+            log.error("Ошибка при обработке пачки из {} сообщений, транзакция будет откачена", records.size(), e);
+            throw e;
+        }
+    }
+
+    // -- Пока в топике нет новых действий, пачки не приходят, и подавленные изменения оценок с истекшим
+    // -- aggregator.emission.max-staleness отправляются пустой пачкой. Событие публикуется в потоке слушателя
+    // -- раз в spring.kafka.listener.idle-event-interval, поэтому состояние агрегатора читается без гонок.
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
         try {
-            similarityService.calculateSimilarity(message);
+            similarityService.calculateSimilarities(List.of());
         } catch (Exception e) {
-            log.error("Ошибка при обработке сообщения: {}", message, e);
+            log.error("Ошибка при отправке устаревших оценок схожести", e);
+        }
+    }
+
+    private void recordProcessed(List<ConsumerRecord<String, UserActionAvro>> records) {
+        for (ConsumerRecord<String, UserActionAvro> record : records) {
+            snapshotService.recordProcessed(new TopicPartition(record.topic(), record.partition()), record.offset());
+        }
+    }
+
+    // -- Если состояние восстановлено из снимка, продолжаем чтение с сохраненных в нем смещений.
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        Map<TopicPartition, Long> offsets = snapshotService.getProcessedOffsets();
+        for (TopicPartition partition : assignments.keySet()) {
+            Long offset = offsets.get(partition);
+            if (offset != null) {
+                log.info("Переход к смещению {} в партиции {} по снимку состояния", offset, partition);
+                callback.seek(partition.topic(), partition.partition(), offset);
+            }
         }
     }
 }
@@ -0,0 +1,7 @@
+package aggregator.matrix;
+
+// -- Обработчик ячейки разреженной матрицы (row, column, value) без упаковки в объекты.
+@FunctionalInterface
+public interface CellConsumer {
+    void accept(long row, long column, double value);
+}
@@ -0,0 +1,105 @@
+package aggregator.matrix;
+
+/**
+ * Разреженная матрица на хеш-таблицах с открытой адресацией:
+ * строки лежат в {@link LongObjectHashMap}, ячейки строки — в {@link LongDoubleHashMap}.
+ * Ячейка обходится в два массива примитивов вместо пары Long + Double и узла HashMap.
+ * Не потокобезопасна.
+ */
+public class HashSparseMatrix implements SparseMatrix {
+    private final LongObjectHashMap<LongDoubleHashMap> rows;
+    private long size;
+
+    public HashSparseMatrix() {
+        this.rows = new LongObjectHashMap<>();
+    }
+
+    @Override
+    public double get(long row, long column, double defaultValue) {
+        LongDoubleHashMap cells = rows.get(row);
+        return cells == null ? defaultValue : cells.get(column, defaultValue);
+    }
+
+    @Override
+    public boolean contains(long row, long column) {
+        LongDoubleHashMap cells = rows.get(row);
+        return cells != null && cells.containsKey(column);
+    }
+
+    @Override
+    public void put(long row, long column, double value) {
+        LongDoubleHashMap cells = rowForUpdate(row);
+        int before = cells.size();
+        cells.put(column, value);
+        size += cells.size() - before;
+    }
+
+    @Override
+    public double add(long row, long column, double delta) {
+        LongDoubleHashMap cells = rowForUpdate(row);
+        int before = cells.size();
+        double updated = cells.addTo(column, delta);
+        size += cells.size() - before;
+        return updated;
+    }
+
+    @Override
+    public void forEachInRow(long row, LongDoubleConsumer action) {
+        LongDoubleHashMap cells = rows.get(row);
+        if (cells != null) {
+            cells.forEach(action);
+        }
+    }
+
+    @Override
+    public int rowSize(long row) {
+        LongDoubleHashMap cells = rows.get(row);
+        return cells == null ? 0 : cells.size();
+    }
+
+    @Override
+    public boolean remove(long row, long column) {
+        LongDoubleHashMap cells = rows.get(row);
+        if (cells == null || !cells.remove(column)) {
+            return false;
+        }
+        size--;
+        if (cells.isEmpty()) {
+            rows.remove(row);
+        }
+        return true;
+    }
+
+    @Override
+    public void removeRow(long row) {
+        LongDoubleHashMap cells = rows.remove(row);
+        if (cells != null) {
+            size -= cells.size();
+        }
+    }
+
+    @Override
+    public void forEach(CellConsumer action) {
+        rows.forEach((row, cells) -> cells.forEach((column, value) -> action.accept(row, column, value)));
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        rows.clear();
+        size = 0;
+    }
+
+    private LongDoubleHashMap rowForUpdate(long row) {
+        LongDoubleHashMap cells = rows.get(row);
+        if (cells == null) {
+            cells = new LongDoubleHashMap();
+            rows.put(row, cells);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,7 @@
+package aggregator.matrix;
+
+// -- Обработчик пары (long, double) без упаковки в объекты.
+@FunctionalInterface
+public interface LongDoubleConsumer {
+    void accept(long key, double value);
+}
@@ -0,0 +1,7 @@
+package aggregator.matrix;
+
+// -- Обработчик пары (long, long) без упаковки в объекты.
+@FunctionalInterface
+public interface LongLongConsumer {
+    void accept(long key, long value);
+}
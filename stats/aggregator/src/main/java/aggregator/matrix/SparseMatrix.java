@@ -0,0 +1,36 @@
+package aggregator.matrix;
+
+/**
+ * Разреженная матрица long -> long -> double.
+ * Хранит только заполненные ячейки; чтение и запись не требуют упаковки ключей и значений.
+ */
+public interface SparseMatrix {
+    // -- Возвращает значение ячейки или defaultValue, если ячейка не заполнена.
+    double get(long row, long column, double defaultValue);
+
+    boolean contains(long row, long column);
+
+    void put(long row, long column, double value);
+
+    // -- Прибавляет delta к значению ячейки (отсутствующая ячейка считается равной 0) и возвращает новое значение.
+    double add(long row, long column, double delta);
+
+    // -- Обходит все заполненные ячейки строки.
+    void forEachInRow(long row, LongDoubleConsumer action);
+
+    int rowSize(long row);
+
+    // -- Удаляет ячейку; возвращает false, если ее не было. Опустевшая строка удаляется целиком.
+    boolean remove(long row, long column);
+
+    // -- Удаляет всю строку.
+    void removeRow(long row);
+
+    // -- Обходит все заполненные ячейки матрицы.
+    void forEach(CellConsumer action);
+
+    // -- Общее количество заполненных ячеек.
+    long size();
+
+    void clear();
+}
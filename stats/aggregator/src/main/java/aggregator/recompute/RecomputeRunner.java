@@ -0,0 +1,99 @@
+package aggregator.recompute;
+
+import aggregator.engine.LocalPairDotProducts;
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.kafka.producer.SimilarityProducer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+import aggregator.service.AggregatorState;
+import aggregator.service.WeightDecay;
+import aggregator.snapshot.SnapshotFiles;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Пакетный пересчет всех оценок схожести по сохраненным действиям пользователей (профиль recompute).
+ * Нужен после изменения aggregator.weights или потери снимка, когда перечитывать весь топик действий
+ * через однопоточный AggregatorService слишком долго. Слушатель Kafka и AggregatorService в этом профиле
+ * не создаются; после пересчета приложение завершается.
+ * Запуск: java -jar aggregator.jar --spring.profiles.active=recompute
+ */
+@Component
+@Profile("recompute")
+@RequiredArgsConstructor
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RecomputeRunner implements ApplicationRunner {
+    AggregatorProperties properties;
+    SimilarityProducer producer;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Instant started = Instant.now();
+        AggregatorProperties.Recompute recompute = properties.getRecompute();
+
+        // -- Структура: {eventId -> {userId -> weight}}
+        SparseMatrix eventUserWeights = new HashSparseMatrix();
+        // -- Структура: {userId -> {eventId -> weight}}
+        SparseMatrix userEventWeights = new HashSparseMatrix();
+        // -- Структура: {eventId -> dotProduct}
+        LongDoubleHashMap selfDotProducts = new LongDoubleHashMap();
+        long actions = new UserActionSource(properties).read((eventId, userId, weight) -> {
+            double currentWeight = eventUserWeights.get(eventId, userId, 0.0);
+            if (weight > currentWeight) {
+                eventUserWeights.put(eventId, userId, weight);
+                userEventWeights.put(userId, eventId, weight);
+                selfDotProducts.addTo(eventId, weight - currentWeight);
+            }
+        });
+
+        // -- Структура: {eventId -> 1 / norm}
+        LongDoubleHashMap reciprocalNorms = new LongDoubleHashMap(selfDotProducts.size());
+        long[] eventIds = new long[selfDotProducts.size()];
+        int[] events = new int[1];
+        selfDotProducts.forEach((eventId, selfDotProduct) -> {
+            eventIds[events[0]++] = eventId;
+            reciprocalNorms.put(eventId, 1.0 / Math.sqrt(selfDotProduct));
+        });
+        log.info("Прочитано {} действий: событий={}, ячеек весов={}, за {} с", actions, eventIds.length,
+                eventUserWeights.size(), Duration.between(started, Instant.now()).toSeconds());
+
+        int parallelism = recompute.getParallelism() > 0
+                ? recompute.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        SimilarityRecompute similarities = new SimilarityRecompute(eventUserWeights, userEventWeights,
+                reciprocalNorms, producer, recompute.getBatchSize(), recompute.isWriteSnapshot());
+        SparseMatrix dotProducts;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            dotProducts = similarities.run(eventIds, pool);
+        } finally {
+            pool.shutdown();
+        }
+        producer.flush();
+        log.info("Отправлено {} оценок схожести, потоков={}, всего {} с",
+                similarities.sentCount(), parallelism, Duration.between(started, Instant.now()).toSeconds());
+
+        if (recompute.isWriteSnapshot()) {
+            AggregatorState state = new AggregatorState(eventUserWeights, selfDotProducts,
+                    new LocalPairDotProducts(dotProducts));
+            AggregatorProperties.Snapshot snapshot = properties.getSnapshot();
+            Path file = SnapshotFiles.save(state, WeightDecay.from(properties.getDecay()), Map.of(),
+                    snapshot.getDirectory(), snapshot.getRetained());
+            log.info("Пересчитанное состояние сохранено снимком {}", file);
+        }
+    }
+}
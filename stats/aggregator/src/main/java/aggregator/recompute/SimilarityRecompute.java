@@ -0,0 +1,133 @@
+package aggregator.recompute;
+
+import aggregator.kafka.producer.SimilarityProducer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Полный пересчет скалярных произведений и оценок схожести всех пар событий по готовым матрицам весов.
+ * Строки eventA делятся между задачами fork/join: задача обходит пользователей своих событий и их историю
+ * через обратный индекс и накапливает sum(min(wA, wB)) только для eventB > eventA. Каждая пара считается
+ * ровно одной задачей, поэтому задачам не нужны ни блокировки, ни слияние частичных сумм.
+ * Матрицы во время пересчета только читаются.
+ */
+class SimilarityRecompute {
+    // -- Задача с таким числом событий больше не делится.
+    private static final int LEAF_EVENTS = 32;
+
+    // -- Структура: {eventId -> {userId -> weight}}
+    private final SparseMatrix eventUserWeights;
+    // -- Структура: {userId -> {eventId -> weight}}
+    private final SparseMatrix userEventWeights;
+    // -- Структура: {eventId -> 1 / norm}
+    private final LongDoubleHashMap reciprocalNorms;
+    private final SimilarityProducer producer;
+    private final int batchSize;
+    private final boolean keepDotProducts;
+    private final Instant timestamp = Instant.now();
+    private final LongAdder sent = new LongAdder();
+
+    SimilarityRecompute(SparseMatrix eventUserWeights, SparseMatrix userEventWeights,
+                        LongDoubleHashMap reciprocalNorms, SimilarityProducer producer, int batchSize,
+                        boolean keepDotProducts) {
+        this.eventUserWeights = eventUserWeights;
+        this.userEventWeights = userEventWeights;
+        this.reciprocalNorms = reciprocalNorms;
+        this.producer = producer;
+        this.batchSize = Math.max(1, batchSize);
+        this.keepDotProducts = keepDotProducts;
+    }
+
+    // -- Считает и отправляет оценки всех пар. Если keepDotProducts, возвращает скалярные произведения пар
+    // -- для снимка, иначе пустую матрицу. Структура: {eventA -> {eventB -> dotProduct}}, eventA < eventB
+    SparseMatrix run(long[] eventIds, ForkJoinPool pool) {
+        return pool.invoke(new RowRangeTask(eventIds, 0, eventIds.length));
+    }
+
+    long sentCount() {
+        return sent.sum();
+    }
+
+    private class RowRangeTask extends RecursiveTask<SparseMatrix> {
+        private final long[] eventIds;
+        private final int from;
+        private final int to;
+
+        RowRangeTask(long[] eventIds, int from, int to) {
+            this.eventIds = eventIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SparseMatrix compute() {
+            if (to - from <= LEAF_EVENTS) {
+                return computeRows();
+            }
+            int middle = (from + to) >>> 1;
+            RowRangeTask right = new RowRangeTask(eventIds, middle, to);
+            right.fork();
+            SparseMatrix left = new RowRangeTask(eventIds, from, middle).compute();
+            return merge(left, right.join());
+        }
+
+        private SparseMatrix computeRows() {
+            SparseMatrix dotProducts = new HashSparseMatrix();
+            // -- Структура: {eventB -> dotProduct}, переиспользуется для всех событий задачи.
+            LongDoubleHashMap row = new LongDoubleHashMap();
+            List<EventSimilarityAvro> batch = new ArrayList<>(batchSize);
+            for (int i = from; i < to; i++) {
+                long eventA = eventIds[i];
+                eventUserWeights.forEachInRow(eventA, (userId, weightA) ->
+                        userEventWeights.forEachInRow(userId, (eventB, weightB) -> {
+                            if (eventB > eventA) {
+                                row.addTo(eventB, Math.min(weightA, weightB));
+                            }
+                        }));
+
+                double reciprocalNormA = reciprocalNorms.get(eventA, Double.NaN);
+                row.forEach((eventB, dotProduct) -> {
+                    double score = dotProduct * reciprocalNormA * reciprocalNorms.get(eventB, Double.NaN);
+                    if (!Double.isNaN(score)) {
+                        batch.add(new EventSimilarityAvro(eventA, eventB, score, timestamp));
+                        if (batch.size() >= batchSize) {
+                            send(batch);
+                        }
+                    }
+                    if (keepDotProducts) {
+                        dotProducts.put(eventA, eventB, dotProduct);
+                    }
+                });
+                row.clear();
+            }
+            send(batch);
+            return dotProducts;
+        }
+
+        private void send(List<EventSimilarityAvro> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            producer.sendSimilarityScores(List.copyOf(batch));
+            sent.add(batch.size());
+            batch.clear();
+        }
+
+        // -- Задачи считают разные строки, поэтому меньшая матрица просто дописывается в большую.
+        private SparseMatrix merge(SparseMatrix left, SparseMatrix right) {
+            SparseMatrix target = left.size() >= right.size() ? left : right;
+            SparseMatrix source = target == left ? right : left;
+            source.forEach(target::put);
+            return target;
+        }
+    }
+}
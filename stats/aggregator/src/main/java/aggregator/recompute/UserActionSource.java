@@ -0,0 +1,105 @@
+package aggregator.recompute;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.matrix.CellConsumer;
+import aggregator.service.WeightDecay;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Чтение сохраненных действий пользователей для пакетного пересчета: таблица user_actions анализатора
+ * или ее CSV-выгрузка. Тип действия переводится в вес по текущим aggregator.weights и aggregator.decay,
+ * поэтому пересчет подхватывает измененные веса. В таблице на пару (пользователь, событие) хранится действие
+ * с наибольшим весом, как и в матрице весов агрегатора.
+ */
+@Slf4j
+class UserActionSource {
+    private static final String SELECT_ACTIONS =
+            "SELECT user_id, event_id, action_type, timestamp FROM user_actions";
+    private static final int FETCH_SIZE = 10_000;
+
+    private final AggregatorProperties.Recompute properties;
+    private final Map<ActionTypeAvro, Double> weights;
+    private final WeightDecay decay;
+
+    UserActionSource(AggregatorProperties properties) {
+        this.properties = properties.getRecompute();
+        this.weights = properties.getWeights();
+        this.decay = WeightDecay.from(properties.getDecay());
+    }
+
+    // -- Передает каждое действие в action как (eventId, userId, weight). Возвращает число прочитанных действий.
+    long read(CellConsumer action) throws IOException, SQLException {
+        return switch (properties.getSource()) {
+            case TABLE -> readTable(action);
+            case FILE -> readFile(action);
+        };
+    }
+
+    private long readTable(CellConsumer action) throws SQLException {
+        log.info("Чтение действий пользователей из таблицы user_actions: {}", properties.getJdbcUrl());
+        try (Connection connection = DriverManager.getConnection(properties.getJdbcUrl(), properties.getUsername(),
+                properties.getPassword())) {
+            // -- Без транзакции драйвер PostgreSQL игнорирует fetchSize и читает всю таблицу в память.
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_ACTIONS)) {
+                statement.setFetchSize(FETCH_SIZE);
+                long count = 0;
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        action.accept(rows.getLong(2), rows.getLong(1),
+                                getWeight(rows.getString(3), rows.getTimestamp(4).toInstant()));
+                        count++;
+                    }
+                }
+                connection.commit();
+                return count;
+            }
+        }
+    }
+
+    private long readFile(CellConsumer action) throws IOException {
+        log.info("Чтение действий пользователей из файла {}", properties.getFile());
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(properties.getFile(), StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.startsWith("user_id"))) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                // -- Время действия нужно только для затухания весов.
+                if (fields.length < (decay.isEnabled() ? 4 : 3)) {
+                    throw new IOException("Строка " + lineNumber + " файла " + properties.getFile()
+                            + " не в формате user_id,event_id,action_type,timestamp_ms: " + line);
+                }
+                Instant timestamp = fields.length > 3 ? Instant.ofEpochMilli(Long.parseLong(fields[3].trim())) : null;
+                action.accept(Long.parseLong(fields[1].trim()), Long.parseLong(fields[0].trim()),
+                        getWeight(fields[2].trim(), timestamp));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // -- Как и в AggregatorService: тип без веса в конфигурации дает нулевой вес.
+    private double getWeight(String actionType, Instant timestamp) {
+        double weight = weights.getOrDefault(ActionTypeAvro.valueOf(actionType), 0.0);
+        return decay.isEnabled() ? weight * decay.scale(timestamp) : weight;
+    }
+}
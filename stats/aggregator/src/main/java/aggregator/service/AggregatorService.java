@@ -1,23 +1,32 @@
 package aggregator.service;
 
+import aggregator.engine.LocalPairDotProducts;
+import aggregator.engine.PairDotProducts;
+import aggregator.engine.ShardedPairDotProducts;
 import aggregator.kafka.config.AggregatorProperties;
 import aggregator.kafka.producer.SimilarityProducer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+import aggregator.spill.EventSpillStore;
+import jakarta.annotation.PreDestroy;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import ru.practicum.ewm.stats.avro.ActionTypeAvro;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * Сервис для агрегации данных о действиях пользователей и расчета схожести событий.
@@ -25,17 +34,40 @@ import java.util.stream.Collectors;
  * и пересчитывает схожесть между событиями на основе этих весов.
  */
 @Service
+@Profile("!recompute")
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class AggregatorService {
     // -- Хранит веса действий пользователя для каждого события.
     // -- Структура: {eventId -> {userId -> weight}}
-    Map<Long, Map<Long, Double>> eventUserWeights;
-
-    // -- Хранит скалярные произведения между событиями.
-    // -- Используется для вычисления схожести.
-    // -- Структура: {eventId -> {otherEventId -> dotProduct}}
-    Map<Long, Map<Long, Double>> scalarResultMatrix;
+    @NonFinal
+    SparseMatrix eventUserWeights;
+
+    // -- Обратный индекс к eventUserWeights: события, с которыми взаимодействовал пользователь.
+    // -- Позволяет обходить только историю пользователя, а не весь каталог событий.
+    // -- Структура: {userId -> {eventId -> weight}}
+    SparseMatrix userEventWeights;
+
+    // -- Скалярные произведения событий самих на себя (квадраты норм).
+    // -- Структура: {eventId -> dotProduct}
+    @NonFinal
+    LongDoubleHashMap selfDotProducts;
+
+    // -- Обратные нормы событий 1 / sqrt(selfDotProduct), пересчитываются только при изменении selfDotProducts.
+    // -- Оценка пары сводится к двум чтениям и умножениям. События с нулевой нормой здесь нет.
+    // -- Структура: {eventId -> 1 / norm}
+    LongDoubleHashMap reciprocalNorms;
+
+    // -- Скалярные произведения пар разных событий. При aggregator.engine.shards > 1 хранятся по шардам,
+    // -- которые в конце пачки параллельно пересчитывают и оценивают свои пары; остальное состояние меняется
+    // -- только в потоке слушателя.
+    // -- Структура: {eventA -> {eventB -> dotProduct}}, eventA < eventB
+    PairDotProducts pairDotProducts;
+
+    // -- Пары, оценки которых ушли в откаченной транзакции Kafka: при повторной доставке пачки веса уже применены
+    // -- и пары не изменятся, поэтому их текущие оценки отправляются со следующей пачкой без фильтров отправки.
+    // -- Структура: {eventA -> {eventB -> 0}}
+    SparseMatrix abortedPairs;
 
     SimilarityProducer producer;
 
@@ -43,147 +75,364 @@ public class AggregatorService {
     // -- Структура: {ActionTypeAvro -> weight}
     Map<ActionTypeAvro, Double> actionWeights;
 
+    // -- Множитель веса по времени действия; все матрицы хранят веса в масштабе эпохи затухания.
+    WeightDecay weightDecay;
+
+    // -- Подавляет отправку оценок, которые почти не изменились с прошлой отправки.
+    EmissionPolicy emissionPolicy;
+
+    // -- Топ-K соседей по каждому событию; в режиме top-k отправляются только изменения топов.
+    NeighbourIndex neighbourIndex;
+
+    // -- Выбирает холодные события, которые выгружаются из памяти в spillStore.
+    EvictionPolicy evictionPolicy;
+
+    // -- Веса выгруженных событий на диске; событие загружается обратно при первом новом действии.
+    EventSpillStore spillStore;
+
     public AggregatorService(SimilarityProducer producer, AggregatorProperties properties) {
         this.producer = producer;
         this.actionWeights = properties.getWeights(); // Получаем веса из properties
-
-        this.eventUserWeights = new HashMap<>();
-        this.scalarResultMatrix = new HashMap<>();
+        this.weightDecay = WeightDecay.from(properties.getDecay());
+
+        this.eventUserWeights = new HashSparseMatrix();
+        this.userEventWeights = new HashSparseMatrix();
+        this.selfDotProducts = new LongDoubleHashMap();
+        this.reciprocalNorms = new LongDoubleHashMap();
+        int shards = properties.getEngine().getShards();
+        this.pairDotProducts = shards > 1 ? new ShardedPairDotProducts(shards) : new LocalPairDotProducts();
+        this.abortedPairs = new HashSparseMatrix();
+        this.emissionPolicy = new EmissionPolicy(properties.getEmission());
+        this.neighbourIndex = new NeighbourIndex(properties.getTopK().isEnabled(), properties.getTopK().getK());
+        this.evictionPolicy = new EvictionPolicy(properties.getEviction());
+        // -- Сегмент открывается и при выключенной выгрузке, чтобы выгруженные ранее события не потерялись.
+        this.spillStore = new EventSpillStore(properties.getEviction().getDirectory());
 
         log.info("AggregationService инициализирован с весами: {}", this.actionWeights);
+        if (emissionPolicy.isEnabled()) {
+            log.info("Включено подавление незначительных изменений схожести: abs={}, rel={}, maxStaleness={}",
+                    properties.getEmission().getMinAbsoluteDelta(),
+                    properties.getEmission().getMinRelativeDelta(),
+                    properties.getEmission().getMaxStaleness());
+        }
+        if (neighbourIndex.isEnabled()) {
+            log.info("Включен режим top-k: отправляются только изменения {} лучших соседей события",
+                    properties.getTopK().getK());
+        }
+        if (weightDecay.isEnabled()) {
+            log.info("Включено затухание весов: halfLife={}, эпоха={}, эпоху нужно перенести до {}",
+                    weightDecay.halfLife(), weightDecay.epoch(), weightDecay.overflowAt());
+        }
+        if (evictionPolicy.isEnabled()) {
+            log.info("Включена выгрузка холодных событий: idleTimeout={}, maxCells={}, каталог={}",
+                    properties.getEviction().getIdleTimeout(), properties.getEviction().getMaxCells(),
+                    properties.getEviction().getDirectory());
+        }
     }
 
     // -- обновляет вес действия для данного пользователя и события,
     // -- затем пересчитывает и отправляет обновленные оценки схожести событий.
     public void calculateSimilarity(UserActionAvro request) {
-        double newWeight = getWeight(request.getActionType());
+        long nowMillis = System.currentTimeMillis();
+        ensureResident(request.getEventId());
+        applyUserAction(request, nowMillis);
+        producer.sendSimilarityScores(collectSimilarities());
+        evictColdEvents(nowMillis);
+    }
 
-        List<EventSimilarityAvro> similarities = updateEventWeight(
-                request.getEventId(),
-                request.getUserId(),
-                newWeight
-        );
+    // -- Применяет к матрицам всю пачку действий, затем отправляет по одной итоговой оценке
+    // -- для каждой затронутой пары событий, сколько бы раз пара ни менялась внутри пачки.
+    public void calculateSimilarities(List<UserActionAvro> requests) {
+        producer.sendSimilarityScores(applyActions(requests));
+    }
+
+    // -- То же, что calculateSimilarities, но оценки возвращаются, а не отправляются. Используется слушателем
+    // -- в транзакционном режиме, где отправка оценок и фиксация смещений входят в одну транзакцию Kafka.
+    public List<EventSimilarityAvro> applyActions(List<UserActionAvro> requests) {
+        long nowMillis = System.currentTimeMillis();
+        // -- Выгруженные события загружаются до первого изменения пачки, пока все шарды простаивают.
+        for (UserActionAvro request : requests) {
+            ensureResident(request.getEventId());
+        }
+        for (UserActionAvro request : requests) {
+            try {
+                applyUserAction(request, nowMillis);
+            } catch (Exception e) {
+                log.error("Ошибка при обработке сообщения: {}", request, e);
+            }
+        }
+        List<EventSimilarityAvro> similarities = collectSimilarities();
+        log.debug("Пачка из {} действий затронула {} пар событий", requests.size(), similarities.size());
+        evictColdEvents(nowMillis);
+        return similarities;
+    }
+
+    // -- Запоминает пары оценок из откаченной транзакции; их текущие оценки уйдут со следующей пачкой.
+    // -- Вызывается из потока обработки после отката.
+    public void requeue(List<EventSimilarityAvro> similarities) {
+        for (EventSimilarityAvro similarity : similarities) {
+            // -- Оценка не дошла до получателя, поэтому и для подавления она не должна считаться отправленной.
+            emissionPolicy.forget(similarity.getEventA(), similarity.getEventB());
+            abortedPairs.put(similarity.getEventA(), similarity.getEventB(), 0.0);
+        }
+    }
+
+    // -- Есть ли пары из откаченной транзакции, оценки которых еще не отправлены повторно.
+    public boolean hasRequeued() {
+        return abortedPairs.size() > 0;
+    }
+
+    // -- Текущее состояние агрегатора для снимка. Матрицы не копируются, поэтому
+    // -- читать их можно только из потока, который обрабатывает действия пользователей, между пачками.
+    public AggregatorState getState() {
+        return new AggregatorState(eventUserWeights, selfDotProducts, pairDotProducts);
+    }
+
+    // -- Заменяет состояние агрегатора восстановленным из снимка и перестраивает обратный индекс.
+    // -- Вызывается до начала чтения топика.
+    public void restoreState(AggregatorState state) {
+        this.eventUserWeights = state.eventUserWeights();
+        this.selfDotProducts = state.selfDotProducts();
+        reciprocalNorms.clear();
+        selfDotProducts.forEach(this::updateReciprocalNorm);
+        state.pairDotProducts().forEach(pairDotProducts::put);
+        long nowMillis = System.currentTimeMillis();
+        eventUserWeights.forEach((eventId, userId, weight) -> {
+            userEventWeights.put(userId, eventId, weight);
+            evictionPolicy.touch(eventId, nowMillis);
+        });
+
+        log.info("Состояние агрегатора восстановлено: весов={}, скалярных произведений={}",
+                eventUserWeights.size(), selfDotProducts.size() + pairDotProducts.size());
+    }
 
-        producer.sendSimilarityScores(similarities.stream()
-                .sorted(Comparator.comparingLong(EventSimilarityAvro::getEventA)
-                        .thenComparingLong(EventSimilarityAvro::getEventB))
-                .collect(Collectors.toList()));
+    @PreDestroy
+    public void shutdown() {
+        pairDotProducts.close();
+        spillStore.close();
     }
 
     private double getWeight(ActionTypeAvro actionType) {
         return this.actionWeights.getOrDefault(actionType, 0.0);
     }
 
+    private void applyUserAction(UserActionAvro request, long nowMillis) {
+        evictionPolicy.touch(request.getEventId(), nowMillis);
+        updateEventWeight(
+                request.getEventId(),
+                request.getUserId(),
+                getWeight(request.getActionType()) * weightDecay.scale(request.getTimestamp())
+        );
+    }
+
     // -- Обновляет вес действия для конкретного пользователя и события.
-    // -- Если новый вес больше текущего, запускает пересчет схожестей.
-    private List<EventSimilarityAvro> updateEventWeight(Long eventId, Long userId, Double newWeight) {
-        Map<Long, Double> userWeights = eventUserWeights.computeIfAbsent(eventId, k -> new HashMap<>());
-        Double currentWeight = userWeights.get(userId);
-
-        if (currentWeight == null || currentWeight < newWeight) {
-            List<EventSimilarityAvro> updatedSimilarities = recalculateSimilarities(
-                    eventId,
-                    userId,
-                    newWeight,
-                    currentWeight
-            );
-            userWeights.put(userId, newWeight);
-            return updatedSimilarities;
-        }
-        return Collections.emptyList();
-    }
-
-    private List<EventSimilarityAvro> recalculateSimilarities(Long eventId, Long userId,
-                                                              Double newWeight, Double oldWeight) {
-        Map<Long, Double> selfDotProducts = scalarResultMatrix.computeIfAbsent(eventId, k -> new HashMap<>());
-        double currentSelfProduct = selfDotProducts.getOrDefault(eventId, 0.0);
-        double weightDelta = (oldWeight == null) ? newWeight : newWeight - oldWeight;
-
-        selfDotProducts.put(eventId, currentSelfProduct + weightDelta);
-
-        return updateCrossDotProducts(eventId, userId, newWeight, oldWeight);
-    }
-
-    // -- Обновляет "перекрестные" скалярные произведения (dot products) между обновленным событием
-    // -- и всеми другими событиями.
-    private List<EventSimilarityAvro> updateCrossDotProducts(Long updatedEventId, Long userId,
-                                                             Double newWeight, Double oldWeight) {
-        List<EventSimilarityAvro> updatedSimilarities = new ArrayList<>();
-
-        for (Long otherEventId : eventUserWeights.keySet()) {
-            if (updatedEventId.equals(otherEventId)) continue;
-
-            long eventA, eventB;
-            boolean isUpdatedFirst;
-            if (updatedEventId < otherEventId) {
-                eventA = updatedEventId;
-                eventB = otherEventId;
-                isUpdatedFirst = true;
-            } else {
-                eventA = otherEventId;
-                eventB = updatedEventId;
-                isUpdatedFirst = false;
-            }
+    // -- Если новый вес больше текущего, запускает пересчет скалярных произведений.
+    // -- Отсутствующий вес считается нулевым: в скалярные произведения он вклада не дает.
+    private void updateEventWeight(long eventId, long userId, double newWeight) {
+        double currentWeight = eventUserWeights.get(eventId, userId, 0.0);
 
-            Map<Long, Double> otherUserWeights = eventUserWeights.get(otherEventId);
-            if (otherUserWeights != null) {
-                Double otherWeight = otherUserWeights.get(userId);
-                if (otherWeight != null) {
-                    EventSimilarityAvro similarity = updateDotProductForPair(
-                            eventA, eventB, newWeight, oldWeight, otherWeight, isUpdatedFirst
-                    );
-                    if (similarity != null) {
-                        updatedSimilarities.add(similarity);
-                    }
-                }
-            }
+        if (eventUserWeights.contains(eventId, userId) && currentWeight >= newWeight) {
+            return;
         }
-        return updatedSimilarities;
-    }
 
-    // -- Обновляет скалярное произведение для пары событий (eventA, eventB) и рассчитывает новую схожесть.
-    // -- Алгоритм основан на обновлении минимальных весов, которые определяют пересечение.
-    private EventSimilarityAvro updateDotProductForPair(long eventA, long eventB,
-                                                        Double newWeight, Double oldWeight,
-                                                        Double otherWeight, boolean isUpdatedFirst) {
-        Map<Long, Double> dotProducts = scalarResultMatrix.computeIfAbsent(eventA, k -> new HashMap<>());
+        addSelfDotProduct(eventId, newWeight - currentWeight);
+        // -- Вклад пользователя в пары с другими его событиями пересчитывается в конце пачки.
+        pairDotProducts.weightChanged(userId, eventId, currentWeight);
 
-        double currentDotProduct = dotProducts.getOrDefault(eventB, 0.0);
-        double oldMinWeight = (oldWeight == null) ? 0.0 : Math.min(oldWeight, otherWeight);
-        double weightForMin;
-        if (isUpdatedFirst) {
-            weightForMin = newWeight;
-        } else {
-            weightForMin = otherWeight;
+        eventUserWeights.put(eventId, userId, newWeight);
+        userEventWeights.put(userId, eventId, newWeight);
+    }
+
+    // -- Загружает выгруженное событие обратно в память: восстанавливает веса, обратный индекс и норму,
+    // -- заново считает скалярные произведения со всеми событиями в памяти и топ соседей события.
+    // -- Оценки пар не отправляются: они те же, что были до выгрузки.
+    private void ensureResident(long eventId) {
+        if (eventUserWeights.rowSize(eventId) > 0 || !spillStore.contains(eventId)) {
+            return;
+        }
+        // -- Структура: {otherEventId -> dotProduct}
+        LongDoubleHashMap partners = new LongDoubleHashMap();
+        try {
+            spillStore.load(eventId, (userId, weight) -> {
+                userEventWeights.forEachInRow(userId, (otherEventId, otherWeight) ->
+                        partners.addTo(otherEventId, Math.min(weight, otherWeight)));
+                eventUserWeights.put(eventId, userId, weight);
+                userEventWeights.put(userId, eventId, weight);
+                addSelfDotProduct(eventId, weight);
+            });
+        } catch (IOException e) {
+            log.error("Не удалось загрузить выгруженное событие {}, оно продолжит накапливаться с нуля", eventId, e);
+            return;
         }
-        double newMinWeight = Math.min(weightForMin, isUpdatedFirst ? otherWeight : newWeight);
 
-        double dotProductDelta = newMinWeight - oldMinWeight;
+        SparseMatrix ignoredEvictions = new HashSparseMatrix();
+        partners.forEach((otherEventId, dotProduct) -> {
+            long eventA = Math.min(eventId, otherEventId);
+            long eventB = Math.max(eventId, otherEventId);
+            pairDotProducts.put(eventA, eventB, dotProduct);
+            double score = calculateSimilarity(eventA, eventB, dotProduct);
+            if (!Double.isNaN(score)) {
+                neighbourIndex.restore(eventId, otherEventId, score, ignoredEvictions);
+            }
+        });
+        log.debug("Событие {} загружено с диска: пользователей={}, пар={}",
+                eventId, eventUserWeights.rowSize(eventId), partners.size());
+    }
 
-        double updatedDotProduct = currentDotProduct + dotProductDelta;
-        dotProducts.put(eventB, updatedDotProduct);
+    // -- Выгружает холодные события на диск. Вызывается после отправки пачки, когда все шарды простаивают.
+    private void evictColdEvents(long nowMillis) {
+        if (!evictionPolicy.isDue(nowMillis)) {
+            return;
+        }
+        long[] victims = evictionPolicy.selectVictims(nowMillis, eventUserWeights);
+        if (victims.length == 0) {
+            return;
+        }
+        long cellsBefore = eventUserWeights.size();
+        int evicted = 0;
+        // -- События, из топа которых выгружен сосед. Структура: {eventId -> 0}
+        LongDoubleHashMap staleTops = new LongDoubleHashMap();
+        for (long eventId : victims) {
+            try {
+                spillStore.spill(eventId, eventUserWeights);
+            } catch (IOException e) {
+                log.error("Не удалось выгрузить событие {} на диск, оно остается в памяти", eventId, e);
+                continue;
+            }
+            evictEvent(eventId, staleTops);
+            evicted++;
+        }
+        staleTops.forEach((eventId, ignored) -> {
+            if (eventUserWeights.rowSize(eventId) > 0) {
+                rebuildNeighbours(eventId);
+            }
+        });
+        try {
+            spillStore.sync();
+        } catch (IOException e) {
+            log.error("Ошибка при сбросе сегмента выгруженных событий на диск", e);
+        }
+        log.info("Выгружено на диск {} событий, ячеек весов в памяти: {} -> {}, событий на диске: {}",
+                evicted, cellsBefore, eventUserWeights.size(), spillStore.size());
+    }
 
-        return calculateSimilarity(eventA, eventB, updatedDotProduct);
+    // -- Удаляет событие из памяти вместе со всеми его парами и из топов его соседей. Пары находятся через
+    // -- обратный индекс: скалярное произведение пары появляется только у событий с общим пользователем.
+    // -- События, из топа которых оно удалено, добавляются в staleTops.
+    private void evictEvent(long eventId, LongDoubleHashMap staleTops) {
+        eventUserWeights.forEachInRow(eventId, (userId, weight) -> {
+            userEventWeights.remove(userId, eventId);
+            userEventWeights.forEachInRow(userId, (otherEventId, otherWeight) -> {
+                long eventA = Math.min(eventId, otherEventId);
+                long eventB = Math.max(eventId, otherEventId);
+                pairDotProducts.remove(eventA, eventB);
+                emissionPolicy.forget(eventA, eventB);
+                if (neighbourIndex.forgetNeighbour(otherEventId, eventId)) {
+                    staleTops.put(otherEventId, 0.0);
+                }
+            });
+        });
+        eventUserWeights.removeRow(eventId);
+        selfDotProducts.remove(eventId);
+        reciprocalNorms.remove(eventId);
+        neighbourIndex.forget(eventId);
+        evictionPolicy.forget(eventId);
     }
 
-    // -- Рассчитывает схожесть между двумя событиями
-    private EventSimilarityAvro calculateSimilarity(long eventA, long eventB, double dotProduct) {
-        Double normA = calculateNorm(eventA);
-        Double normB = calculateNorm(eventB);
+    // -- Строит топ соседей события заново по оценкам его пар в памяти, без отправки изменений.
+    // -- Нужен, когда из топа выгружен сосед: на освободившееся место встает лучший из оставшихся.
+    private void rebuildNeighbours(long eventId) {
+        neighbourIndex.forget(eventId);
+        SparseMatrix ignoredEvictions = new HashSparseMatrix();
+        // -- Структура: {otherEventId -> 0}
+        LongDoubleHashMap visited = new LongDoubleHashMap();
+        eventUserWeights.forEachInRow(eventId, (userId, weight) ->
+                userEventWeights.forEachInRow(userId, (otherEventId, otherWeight) -> {
+                    if (otherEventId == eventId || visited.containsKey(otherEventId)) {
+                        return;
+                    }
+                    visited.put(otherEventId, 0.0);
+                    long eventA = Math.min(eventId, otherEventId);
+                    long eventB = Math.max(eventId, otherEventId);
+                    double score = calculateSimilarity(eventA, eventB, pairDotProducts.get(eventA, eventB));
+                    if (!Double.isNaN(score)) {
+                        neighbourIndex.restore(eventId, otherEventId, score, ignoredEvictions);
+                    }
+                }));
+    }
 
-        if (normA == null || normB == null || normA == 0 || normB == 0) {
-            return null;
+    // -- Пересчитывает скалярные произведения затронутых пар и рассчитывает их итоговые оценки схожести
+    // -- по текущим нормам событий, упорядоченные по (eventA, eventB). В режиме top-k остаются только пары,
+    // -- изменившие чей-либо топ, и пары, выпавшие из топа (с их текущей оценкой); добавляются пары из откаченной
+    // -- транзакции. Оценки, изменившиеся меньше порогов отправки, отбрасываются; к ним добавляются подавленные
+    // -- оценки с истекшим maxStaleness.
+    private List<EventSimilarityAvro> collectSimilarities() {
+        Instant timestamp = Instant.now();
+        // -- Структура: {eventA -> {eventB -> score}}
+        SparseMatrix scores = new HashSparseMatrix();
+        SparseMatrix evictedPairs = new HashSparseMatrix();
+        // -- Нормы и строки пользователей шарды только читают: поток слушателя ждет их завершения.
+        List<EventSimilarityAvro> scored = pairDotProducts.flush(userEventWeights, this::calculateSimilarity,
+                timestamp);
+        if (!neighbourIndex.isEnabled() && !emissionPolicy.isEnabled() && !hasRequeued()) {
+            return scored;
+        }
+        for (EventSimilarityAvro similarity : scored) {
+            if (neighbourIndex.update(similarity.getEventA(), similarity.getEventB(), similarity.getScore(),
+                    evictedPairs)) {
+                scores.put(similarity.getEventA(), similarity.getEventB(), similarity.getScore());
+            }
         }
+        evictedPairs.forEach((eventA, eventB, ignored) -> {
+            if (!scores.contains(eventA, eventB) && !neighbourIndex.contains(eventA, eventB)) {
+                putCurrentScore(eventA, eventB, scores);
+            }
+        });
+        abortedPairs.forEach((eventA, eventB, ignored) -> {
+            if (!scores.contains(eventA, eventB)) {
+                putCurrentScore(eventA, eventB, scores);
+            }
+        });
+        abortedPairs.clear();
 
-        double similarity = dotProduct / (normA * normB);
-        return new EventSimilarityAvro(eventA, eventB, similarity, Instant.now());
+        List<EventSimilarityAvro> similarities = new ArrayList<>((int) scores.size());
+        scores.forEach((eventA, eventB, score) -> {
+            if (emissionPolicy.shouldEmit(eventA, eventB, score, timestamp)) {
+                similarities.add(new EventSimilarityAvro(eventA, eventB, score, timestamp));
+            }
+        });
+        // -- Подавленные ранее изменения пар, которые с тех пор не менялись, уходят по истечении maxStaleness.
+        emissionPolicy.drainStale(timestamp, (eventA, eventB, score) ->
+                similarities.add(new EventSimilarityAvro(eventA, eventB, score, timestamp)));
+        if (similarities.isEmpty()) {
+            return Collections.emptyList();
+        }
+        similarities.sort(Comparator.comparingLong(EventSimilarityAvro::getEventA)
+                .thenComparingLong(EventSimilarityAvro::getEventB));
+        return similarities;
     }
 
-    private Double calculateNorm(Long eventId) {
-        Map<Long, Double> selfDotProducts = scalarResultMatrix.get(eventId);
-        if (selfDotProducts == null) return null;
+    private void putCurrentScore(long eventA, long eventB, SparseMatrix scores) {
+        double score = calculateSimilarity(eventA, eventB, pairDotProducts.get(eventA, eventB));
+        if (!Double.isNaN(score)) {
+            scores.put(eventA, eventB, score);
+        }
+    }
+
+    // -- Рассчитывает схожесть между двумя событиями; NaN, если у одного из событий нулевая норма.
+    private double calculateSimilarity(long eventA, long eventB, double dotProduct) {
+        return dotProduct * reciprocalNorms.get(eventA, Double.NaN) * reciprocalNorms.get(eventB, Double.NaN);
+    }
 
-        Double selfProduct = selfDotProducts.get(eventId);
-        return (selfProduct != null) ? Math.sqrt(selfProduct) : null;
+    private void addSelfDotProduct(long eventId, double delta) {
+        updateReciprocalNorm(eventId, selfDotProducts.addTo(eventId, delta));
+    }
+
+    private void updateReciprocalNorm(long eventId, double selfDotProduct) {
+        if (selfDotProduct > 0) {
+            reciprocalNorms.put(eventId, 1.0 / Math.sqrt(selfDotProduct));
+        } else {
+            reciprocalNorms.remove(eventId);
+        }
     }
 }
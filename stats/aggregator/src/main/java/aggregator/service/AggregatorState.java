@@ -0,0 +1,14 @@
+package aggregator.service;
+
+import aggregator.engine.PairDotProducts;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+
+/**
+ * Состояние агрегатора, которое сохраняется в снимок и восстанавливается из него.
+ * Обратный индекс пользователь -> события в снимок не входит: он строится заново по весам.
+ */
+public record AggregatorState(SparseMatrix eventUserWeights,
+                              LongDoubleHashMap selfDotProducts,
+                              PairDotProducts pairDotProducts) {
+}
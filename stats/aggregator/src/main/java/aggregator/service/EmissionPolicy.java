@@ -0,0 +1,137 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.matrix.CellConsumer;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongLongHashMap;
+import aggregator.matrix.LongObjectHashMap;
+import aggregator.matrix.SparseMatrix;
+
+import java.time.Instant;
+
+/**
+ * Решает, отправлять ли новую оценку схожести пары событий.
+ * Помнит последнюю отправленную оценку и время отправки по каждой паре и пропускает изменения
+ * меньше заданных порогов. Подавленное изменение уходит вместе со следующим значимым изменением пары,
+ * а при заданном maxStaleness — не позже чем через maxStaleness после прошлой отправки: последняя подавленная
+ * оценка пары хранится и отдается {@link #drainStale}, даже если пара больше не меняется.
+ * Не потокобезопасен: используется только из потока обработки действий.
+ */
+class EmissionPolicy {
+    // -- Пары, срок которых истекает в ближайшую 1/8 maxStaleness, отправляются заранее вместе с просроченными,
+    // -- поэтому полный обход подавленных пар выполняется не чаще 8 раз за maxStaleness.
+    private static final int SWEEP_AHEAD_DIVISOR = 8;
+
+    private final double minAbsoluteDelta;
+    private final double minRelativeDelta;
+    private final long maxStalenessMillis;
+    private final boolean enabled;
+
+    // -- Структура: {eventA -> {eventB -> score}}
+    private final SparseMatrix lastEmittedScores = new HashSparseMatrix();
+    // -- Структура: {eventA -> {eventB -> epochMillis}}; ведется только при заданном maxStaleness.
+    private final LongObjectHashMap<LongLongHashMap> lastEmittedAt = new LongObjectHashMap<>();
+    // -- Последние подавленные оценки, которые еще не отправлены; ведется только при заданном maxStaleness.
+    // -- Структура: {eventA -> {eventB -> score}}
+    private final SparseMatrix suppressedScores = new HashSparseMatrix();
+    // -- Самый ранний срок отправки среди подавленных пар; до него обход не нужен.
+    private long nextStaleAt = Long.MAX_VALUE;
+
+    EmissionPolicy(AggregatorProperties.Emission properties) {
+        this.minAbsoluteDelta = properties.getMinAbsoluteDelta();
+        this.minRelativeDelta = properties.getMinRelativeDelta();
+        this.maxStalenessMillis = properties.getMaxStaleness() == null ? 0 : properties.getMaxStaleness().toMillis();
+        this.enabled = minAbsoluteDelta > 0 || minRelativeDelta > 0;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // -- Возвращает true, если оценку нужно отправить, и в этом случае запоминает ее как последнюю отправленную.
+    boolean shouldEmit(long eventA, long eventB, double score, Instant now) {
+        if (!enabled) {
+            return true;
+        }
+        long nowMillis = now.toEpochMilli();
+        if (lastEmittedScores.contains(eventA, eventB) && !isSignificant(eventA, eventB, score, nowMillis)) {
+            if (maxStalenessMillis > 0) {
+                suppressedScores.put(eventA, eventB, score);
+                nextStaleAt = Math.min(nextStaleAt, emittedAt(eventA, eventB) + maxStalenessMillis);
+            }
+            return false;
+        }
+        markEmitted(eventA, eventB, score, nowMillis);
+        return true;
+    }
+
+    // -- Передает action подавленные оценки пар, последняя отправка которых старше maxStaleness
+    // -- (или станет старше в ближайшую 1/8 интервала), и запоминает их как отправленные.
+    void drainStale(Instant now, CellConsumer action) {
+        long nowMillis = now.toEpochMilli();
+        long horizon = nowMillis + maxStalenessMillis / SWEEP_AHEAD_DIVISOR;
+        if (horizon < nextStaleAt) {
+            return;
+        }
+        // -- Структура: {eventA -> {eventB -> score}}
+        SparseMatrix due = new HashSparseMatrix();
+        long[] next = {Long.MAX_VALUE};
+        suppressedScores.forEach((eventA, eventB, score) -> {
+            long staleAt = emittedAt(eventA, eventB) + maxStalenessMillis;
+            if (staleAt <= horizon) {
+                due.put(eventA, eventB, score);
+            } else {
+                next[0] = Math.min(next[0], staleAt);
+            }
+        });
+        nextStaleAt = next[0];
+        due.forEach((eventA, eventB, score) -> {
+            markEmitted(eventA, eventB, score, nowMillis);
+            action.accept(eventA, eventB, score);
+        });
+    }
+
+    // -- Забывает пару выгруженного события; следующее изменение пары будет отправлено без проверок.
+    void forget(long eventA, long eventB) {
+        if (enabled) {
+            lastEmittedScores.remove(eventA, eventB);
+            suppressedScores.remove(eventA, eventB);
+            LongLongHashMap row = lastEmittedAt.get(eventA);
+            if (row != null && row.remove(eventB) && row.isEmpty()) {
+                lastEmittedAt.remove(eventA);
+            }
+        }
+    }
+
+    private boolean isSignificant(long eventA, long eventB, double score, long nowMillis) {
+        if (maxStalenessMillis > 0
+                && nowMillis - emittedAt(eventA, eventB) >= maxStalenessMillis) {
+            return true;
+        }
+
+        double lastScore = lastEmittedScores.get(eventA, eventB, 0.0);
+        double delta = Math.abs(score - lastScore);
+        if (delta < minAbsoluteDelta) {
+            return false;
+        }
+        return lastScore == 0.0 || delta / Math.abs(lastScore) >= minRelativeDelta;
+    }
+
+    private void markEmitted(long eventA, long eventB, double score, long nowMillis) {
+        lastEmittedScores.put(eventA, eventB, score);
+        if (maxStalenessMillis > 0) {
+            suppressedScores.remove(eventA, eventB);
+            LongLongHashMap row = lastEmittedAt.get(eventA);
+            if (row == null) {
+                row = new LongLongHashMap();
+                lastEmittedAt.put(eventA, row);
+            }
+            row.put(eventB, nowMillis);
+        }
+    }
+
+    private long emittedAt(long eventA, long eventB) {
+        LongLongHashMap row = lastEmittedAt.get(eventA);
+        return row == null ? 0L : row.get(eventB, 0L);
+    }
+}
@@ -0,0 +1,103 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.matrix.LongLongHashMap;
+import aggregator.matrix.SparseMatrix;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Выбирает холодные события для выгрузки из памяти.
+ * Помнит время последнего действия по каждому событию в памяти и выбирает все события, простаивающие
+ * дольше idleTimeout, а если ячеек весов больше maxCells — еще и давно не использованные события (LRU),
+ * пока ячеек не станет на 10% меньше лимита, чтобы выгрузка не запускалась на каждой пачке.
+ * Не потокобезопасен: используется только из потока обработки действий.
+ */
+class EvictionPolicy {
+    private final boolean enabled;
+    private final long idleTimeoutMillis;
+    private final long maxCells;
+    private final long checkIntervalMillis;
+
+    // -- Структура: {eventId -> epochMillis последнего действия}
+    private final LongLongHashMap lastActivity = new LongLongHashMap();
+    private long nextCheckAt;
+
+    EvictionPolicy(AggregatorProperties.Eviction properties) {
+        this.enabled = properties.isEnabled();
+        this.idleTimeoutMillis = properties.getIdleTimeout() == null ? 0 : properties.getIdleTimeout().toMillis();
+        this.maxCells = properties.getMaxCells();
+        this.checkIntervalMillis = properties.getCheckInterval().toMillis();
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void touch(long eventId, long nowMillis) {
+        if (enabled) {
+            lastActivity.put(eventId, nowMillis);
+        }
+    }
+
+    void forget(long eventId) {
+        lastActivity.remove(eventId);
+    }
+
+    // -- Пора ли проверять события; проверка выполняется не чаще checkInterval.
+    boolean isDue(long nowMillis) {
+        if (!enabled || nowMillis < nextCheckAt) {
+            return false;
+        }
+        nextCheckAt = nowMillis + checkIntervalMillis;
+        return true;
+    }
+
+    // -- События для выгрузки; eventUserWeights нужна, чтобы учесть, сколько ячеек освободит каждое событие.
+    long[] selectVictims(long nowMillis, SparseMatrix eventUserWeights) {
+        int events = lastActivity.size();
+        long[] eventIds = new long[events];
+        long[] activity = new long[events];
+        int[] index = new int[1];
+        lastActivity.forEach((eventId, millis) -> {
+            eventIds[index[0]] = eventId;
+            activity[index[0]++] = millis;
+        });
+
+        boolean[] selected = new boolean[events];
+        long[] victims = new long[events];
+        int victimCount = 0;
+        long cells = eventUserWeights.size();
+
+        if (idleTimeoutMillis > 0) {
+            for (int i = 0; i < events; i++) {
+                if (nowMillis - activity[i] >= idleTimeoutMillis) {
+                    selected[i] = true;
+                    victims[victimCount++] = eventIds[i];
+                    cells -= eventUserWeights.rowSize(eventIds[i]);
+                }
+            }
+        }
+
+        if (maxCells > 0 && cells > maxCells) {
+            long target = maxCells - maxCells / 10;
+            int[] leastRecentFirst = IntStream.range(0, events)
+                    .boxed()
+                    .sorted(Comparator.comparingLong(i -> activity[i]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            for (int i : leastRecentFirst) {
+                if (cells <= target) {
+                    break;
+                }
+                if (!selected[i]) {
+                    victims[victimCount++] = eventIds[i];
+                    cells -= eventUserWeights.rowSize(eventIds[i]);
+                }
+            }
+        }
+        return Arrays.copyOf(victims, victimCount);
+    }
+}
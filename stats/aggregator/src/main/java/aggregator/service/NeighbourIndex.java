@@ -0,0 +1,120 @@
+package aggregator.service;
+
+import aggregator.matrix.LongObjectHashMap;
+import aggregator.matrix.SparseMatrix;
+
+/**
+ * Топ-K соседей каждого события по оценке схожести.
+ * Пара событий отправляется дальше, только если она вошла в топ одного из событий,
+ * сдвинулась внутри него или выпала из него. Объем состояния и поток оценок ограничены K × число событий.
+ * Когда индекс выключен, пропускает все пары.
+ * Не потокобезопасен: используется только из потока обработки действий.
+ */
+class NeighbourIndex {
+    private final boolean enabled;
+    private final int capacity;
+    private final LongObjectHashMap<TopNeighbours> neighbours = new LongObjectHashMap<>();
+
+    NeighbourIndex(boolean enabled, int capacity) {
+        if (enabled && capacity < 1) {
+            throw new IllegalArgumentException("aggregator.top-k.k должен быть не меньше 1, задано " + capacity);
+        }
+        this.enabled = enabled;
+        this.capacity = capacity;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // -- Учитывает новую оценку пары и возвращает true, если пару нужно отправить.
+    // -- Пары, вытесненные из чьего-либо топа, добавляются в evictedPairs как (min, max).
+    boolean update(long eventA, long eventB, double score, SparseMatrix evictedPairs) {
+        if (!enabled) {
+            return true;
+        }
+        boolean changedForA = offer(eventA, eventB, score, evictedPairs);
+        boolean changedForB = offer(eventB, eventA, score, evictedPairs);
+        return changedForA || changedForB;
+    }
+
+    // -- Входит ли пара в топ хотя бы одного из своих событий.
+    boolean contains(long eventA, long eventB) {
+        return contains(neighbours.get(eventA), eventB) || contains(neighbours.get(eventB), eventA);
+    }
+
+    // -- Копия текущих соседей события из его топа; пустой массив, если топа нет или индекс выключен.
+    long[] neighboursOf(long eventId) {
+        TopNeighbours top = enabled ? neighbours.get(eventId) : null;
+        return top == null ? new long[0] : top.ids();
+    }
+
+    // -- Забывает топ события: выгруженного или того, чей топ строится заново через restore.
+    void forget(long eventId) {
+        neighbours.remove(eventId);
+    }
+
+    // -- Убирает выгруженное событие neighbourId из топа eventId. Возвращает true, если оно там было:
+    // -- тогда в топе освободилось место и его нужно построить заново.
+    boolean forgetNeighbour(long eventId, long neighbourId) {
+        TopNeighbours top = enabled ? neighbours.get(eventId) : null;
+        if (top == null) {
+            return false;
+        }
+        int index = top.indexOf(neighbourId);
+        if (index < 0) {
+            return false;
+        }
+        top.removeAt(index);
+        if (top.size() == 0) {
+            neighbours.remove(eventId);
+        }
+        return true;
+    }
+
+    // -- Заполняет топ события без отправки изменений: для события, загруженного обратно с диска,
+    // -- и для топа, из которого выгружен сосед. Оценки пар при этом не меняются.
+    void restore(long eventId, long neighbourId, double score, SparseMatrix evictedPairs) {
+        if (enabled) {
+            offer(eventId, neighbourId, score, evictedPairs);
+        }
+    }
+
+    private boolean offer(long eventId, long neighbourId, double score, SparseMatrix evictedPairs) {
+        TopNeighbours top = neighbours.get(eventId);
+        if (top == null) {
+            if (score <= 0) {
+                return false;
+            }
+            top = new TopNeighbours(capacity);
+            neighbours.put(eventId, top);
+        }
+
+        int index = top.indexOf(neighbourId);
+        if (index >= 0) {
+            if (score <= 0) {
+                top.removeAt(index);
+                return true;
+            }
+            return top.updateAt(index, score);
+        }
+
+        if (score <= 0) {
+            return false;
+        }
+        if (!top.isFull()) {
+            top.add(neighbourId, score);
+            return true;
+        }
+        if (score <= top.minScore()) {
+            return false;
+        }
+        long evicted = top.replaceMin(neighbourId, score);
+        evictedPairs.put(Math.min(eventId, evicted), Math.max(eventId, evicted), 0.0);
+        return true;
+    }
+
+    private static boolean contains(TopNeighbours top, long neighbourId) {
+        return top != null && top.indexOf(neighbourId) >= 0;
+    }
+}
@@ -0,0 +1,125 @@
+package aggregator.service;
+
+import java.util.Arrays;
+
+/**
+ * Ограниченный набор из K лучших соседей события: min-heap по оценке схожести
+ * на параллельных примитивных массивах. В корне лежит худший из сохраненных соседей,
+ * поэтому проверка "входит ли новый сосед в топ" стоит одно сравнение.
+ * Поиск соседа линейный: K невелико, а массивы компактны.
+ */
+class TopNeighbours {
+    private final long[] ids;
+    private final double[] scores;
+    private int size;
+
+    TopNeighbours(int capacity) {
+        this.ids = new long[capacity];
+        this.scores = new double[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == ids.length;
+    }
+
+    int indexOf(long neighbourId) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == neighbourId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    long[] ids() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    double minScore() {
+        return scores[0];
+    }
+
+    void add(long neighbourId, double score) {
+        ids[size] = neighbourId;
+        scores[size] = score;
+        siftUp(size++);
+    }
+
+    // -- Заменяет худшего соседа новым и возвращает id вытесненного.
+    long replaceMin(long neighbourId, double score) {
+        long evicted = ids[0];
+        ids[0] = neighbourId;
+        scores[0] = score;
+        siftDown(0);
+        return evicted;
+    }
+
+    // -- Обновляет оценку соседа; возвращает false, если оценка не изменилась.
+    boolean updateAt(int index, double score) {
+        double previous = scores[index];
+        if (previous == score) {
+            return false;
+        }
+        scores[index] = score;
+        if (score < previous) {
+            siftUp(index);
+        } else {
+            siftDown(index);
+        }
+        return true;
+    }
+
+    void removeAt(int index) {
+        size--;
+        if (index == size) {
+            return;
+        }
+        ids[index] = ids[size];
+        scores[index] = scores[size];
+        siftDown(index);
+        siftUp(index);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if (scores[index] <= scores[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,55 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Экспоненциальное затухание весов действий с отсчетом от фиксированной эпохи (forward decay).
+ * Накопленные веса не уменьшаются со временем: вместо этого вес нового действия сразу умножается
+ * на 2^((t - epoch) / halfLife), где t — время действия. Все веса хранятся в одном масштабе, и затухшие
+ * к моменту T значения получаются делением на общий множитель 2^((T - epoch) / halfLife).
+ * Оценка схожести sum(min(wA, wB)) / sqrt(sum(wA) * sum(wB)) от общего множителя не зависит, поэтому
+ * агрегатору не нужно ни обходить матрицы, ни знать текущее время.
+ * Множитель растет без ограничения: до {@link #overflowAt()} эпоху нужно перенести и пересчитать
+ * состояние профилем recompute.
+ * Анализатор хранит веса в том же масштабе ({@code analyzer.service.WeightDecay}): формула множителя,
+ * предел показателя и проверка halfLife в двух копиях должны совпадать. WeightDecayTest обоих модулей
+ * проверяет одни и те же значения.
+ */
+public record WeightDecay(Duration halfLife, Instant epoch) {
+    public static final WeightDecay DISABLED = new WeightDecay(Duration.ZERO, Instant.EPOCH);
+
+    // -- Предельный показатель степени двойки: double переполняется после 2^1023, а сумме весов события
+    // -- нужен запас на число пользователей.
+    private static final double MAX_EXPONENT = 960;
+
+    public static WeightDecay from(AggregatorProperties.Decay properties) {
+        if (!properties.isEnabled()) {
+            return DISABLED;
+        }
+        if (properties.getHalfLife() == null || properties.getHalfLife().toMillis() <= 0) {
+            throw new IllegalArgumentException("aggregator.decay.half-life должен быть положительным");
+        }
+        return new WeightDecay(properties.getHalfLife(), properties.getEpoch());
+    }
+
+    public boolean isEnabled() {
+        return !halfLife.isZero();
+    }
+
+    // -- Множитель веса действия, совершенного в момент timestamp; без затухания — 1.
+    public double scale(Instant timestamp) {
+        if (!isEnabled()) {
+            return 1.0;
+        }
+        double exponent = (double) (timestamp.toEpochMilli() - epoch.toEpochMilli()) / halfLife.toMillis();
+        return Math.pow(2.0, Math.max(-MAX_EXPONENT, Math.min(MAX_EXPONENT, exponent)));
+    }
+
+    // -- Момент, после которого множитель перестает расти и новые действия уже не перевешивают старые.
+    public Instant overflowAt() {
+        return epoch.plusMillis((long) (MAX_EXPONENT * halfLife.toMillis()));
+    }
+}
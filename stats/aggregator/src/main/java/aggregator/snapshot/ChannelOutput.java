@@ -0,0 +1,85 @@
+package aggregator.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Запись снимка прямо в FileChannel через один буфер фиксированного размера.
+ * Состояние не копируется в кучу целиком: заполненный буфер сразу уходит в страничный кеш ОС,
+ * а CRC32 считается по мере записи. Ошибки ввода-вывода выбрасываются как {@link UncheckedIOException},
+ * потому что запись идет из обходчиков матриц.
+ */
+class ChannelOutput {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private long written;
+
+    ChannelOutput(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    void putInt(int value) {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void putLong(long value) {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    void putDouble(double value) {
+        ensure(Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    // -- Дописывает остаток буфера и контрольную сумму всего содержимого. Возвращает размер файла в байтах.
+    long finish() throws IOException {
+        drain();
+        buffer.putLong(crc.getValue()).flip();
+        writeFully();
+        return written;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        writeFully();
+    }
+
+    private void writeFully() throws IOException {
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
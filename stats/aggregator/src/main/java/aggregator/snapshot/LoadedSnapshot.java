@@ -0,0 +1,14 @@
+package aggregator.snapshot;
+
+import aggregator.service.AggregatorState;
+import aggregator.service.WeightDecay;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Instant;
+import java.util.Map;
+
+// -- Прочитанный с диска снимок: состояние агрегатора, масштаб его весов и смещения,
+// -- с которых нужно продолжить чтение топика.
+record LoadedSnapshot(AggregatorState state, WeightDecay decay, Map<TopicPartition, Long> offsets,
+                      Instant createdAt) {
+}
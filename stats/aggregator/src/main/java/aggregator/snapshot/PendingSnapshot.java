@@ -0,0 +1,65 @@
+package aggregator.snapshot;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Снимок, который записывается во временный файл. Данные пишутся через {@link #output()},
+ * затем {@link #commit} сбрасывает файл на диск и атомарно переименовывает его в снимок,
+ * а {@link #discard} удаляет недописанный файл. Запись и фиксацию можно выполнять в разных потоках,
+ * если фиксация начинается после окончания записи.
+ */
+final class PendingSnapshot {
+    private final Path directory;
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private final ChannelOutput output;
+
+    private PendingSnapshot(Path directory, Path target, Path temp, FileChannel channel) {
+        this.directory = directory;
+        this.target = target;
+        this.temp = temp;
+        this.channel = channel;
+        this.output = new ChannelOutput(channel);
+    }
+
+    static PendingSnapshot open(Path directory, Path target) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(target.getFileName() + SnapshotFiles.TEMP_SUFFIX);
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new PendingSnapshot(directory, target, temp, channel);
+    }
+
+    ChannelOutput output() {
+        return output;
+    }
+
+    // -- fsync, переименование и удаление старых снимков, оставляя retained последних. Возвращает путь снимка.
+    Path commit(int retained) throws IOException {
+        try {
+            channel.force(true);
+            channel.close();
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+        SnapshotFiles.deleteOld(directory, retained);
+        return target;
+    }
+
+    void discard() {
+        try {
+            channel.close();
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+            // -- Недописанный временный файл будет перезаписан или удален при следующем снимке.
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package aggregator.snapshot;
+
+import aggregator.engine.LocalPairDotProducts;
+import aggregator.engine.PairDotProducts;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+import aggregator.service.AggregatorState;
+import aggregator.service.WeightDecay;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Бинарный формат снимка состояния агрегатора.
+ * Заголовок (сигнатура, версия, время создания, параметры затухания весов), смещения Kafka по партициям,
+ * ячейки матрицы весов и ячейки матрицы скалярных произведений. Квадраты норм хранятся в той же матрице
+ * скалярных произведений на диагонали (eventId, eventId), пары событий — вне диагонали.
+ * Контрольная сумма CRC32 всего содержимого дописывается в конец файла.
+ */
+final class SnapshotCodec {
+    static final int MAGIC = 0x41474753; // -- "AGGS"
+    static final int VERSION = 2;
+    // -- Версия 1 не содержит параметров затухания: ее веса записаны без затухания.
+    static final int VERSION_WITHOUT_DECAY = 1;
+
+    private SnapshotCodec() {
+    }
+
+    // -- Записывает снимок вместе с контрольной суммой и возвращает его размер в байтах.
+    static long encode(AggregatorState state, WeightDecay decay, Map<TopicPartition, Long> offsets,
+                       Instant createdAt, ChannelOutput out) throws IOException {
+        try {
+            writeState(state, decay, offsets, createdAt, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return out.finish();
+    }
+
+    private static void writeState(AggregatorState state, WeightDecay decay, Map<TopicPartition, Long> offsets,
+                                   Instant createdAt, ChannelOutput out) {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(createdAt.toEpochMilli());
+        out.putLong(decay.halfLife().toMillis());
+        out.putLong(decay.epoch().toEpochMilli());
+
+        out.putInt(offsets.size());
+        offsets.forEach((partition, offset) -> {
+            out.putString(partition.topic());
+            out.putInt(partition.partition());
+            out.putLong(offset);
+        });
+
+        writeMatrix(out, state.eventUserWeights());
+        writeDotProducts(out, state.selfDotProducts(), state.pairDotProducts());
+    }
+
+    static LoadedSnapshot decode(DataInput in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Файл не является снимком агрегатора");
+        }
+        int version = in.readInt();
+        if (version != VERSION && version != VERSION_WITHOUT_DECAY) {
+            throw new IOException("Неподдерживаемая версия снимка: " + version);
+        }
+        Instant createdAt = Instant.ofEpochMilli(in.readLong());
+        WeightDecay decay = WeightDecay.DISABLED;
+        if (version != VERSION_WITHOUT_DECAY) {
+            long halfLifeMillis = in.readLong();
+            long epochMillis = in.readLong();
+            if (halfLifeMillis > 0) {
+                decay = new WeightDecay(Duration.ofMillis(halfLifeMillis), Instant.ofEpochMilli(epochMillis));
+            }
+        }
+
+        int partitions = in.readInt();
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (int i = 0; i < partitions; i++) {
+            String topic = readString(in);
+            int partition = in.readInt();
+            offsets.put(new TopicPartition(topic, partition), in.readLong());
+        }
+
+        SparseMatrix eventUserWeights = readMatrix(in);
+        LongDoubleHashMap selfDotProducts = new LongDoubleHashMap();
+        PairDotProducts pairDotProducts = new LocalPairDotProducts();
+        long cells = in.readLong();
+        for (long i = 0; i < cells; i++) {
+            long eventA = in.readLong();
+            long eventB = in.readLong();
+            double dotProduct = in.readDouble();
+            if (eventA == eventB) {
+                selfDotProducts.put(eventA, dotProduct);
+            } else {
+                pairDotProducts.put(eventA, eventB, dotProduct);
+            }
+        }
+        return new LoadedSnapshot(new AggregatorState(eventUserWeights, selfDotProducts, pairDotProducts),
+                decay, offsets, createdAt);
+    }
+
+    private static void writeMatrix(ChannelOutput out, SparseMatrix matrix) {
+        out.putLong(matrix.size());
+        matrix.forEach((row, column, value) -> {
+            out.putLong(row);
+            out.putLong(column);
+            out.putDouble(value);
+        });
+    }
+
+    private static void writeDotProducts(ChannelOutput out, LongDoubleHashMap selfDotProducts,
+                                         PairDotProducts pairDotProducts) {
+        out.putLong(selfDotProducts.size() + pairDotProducts.size());
+        selfDotProducts.forEach((eventId, dotProduct) -> {
+            out.putLong(eventId);
+            out.putLong(eventId);
+            out.putDouble(dotProduct);
+        });
+        pairDotProducts.forEach((eventA, eventB, dotProduct) -> {
+            out.putLong(eventA);
+            out.putLong(eventB);
+            out.putDouble(dotProduct);
+        });
+    }
+
+    private static SparseMatrix readMatrix(DataInput in) throws IOException {
+        SparseMatrix matrix = new HashSparseMatrix();
+        long cells = in.readLong();
+        for (long i = 0; i < cells; i++) {
+            matrix.put(in.readLong(), in.readLong(), in.readDouble());
+        }
+        return matrix;
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package aggregator.snapshot;
+
+import aggregator.service.AggregatorState;
+import aggregator.service.WeightDecay;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Файлы снимков в каталоге: запись через временный файл ({@link PendingSnapshot}) с fsync
+ * и атомарным переименованием, чтение с проверкой контрольной суммы, список снимков от новых к старым.
+ */
+public final class SnapshotFiles {
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".bin";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private SnapshotFiles() {
+    }
+
+    // -- Кодирует и сразу записывает снимок состояния. Используется вне потока обработки действий,
+    // -- например пакетным пересчетом, которому не нужен фоновый писатель SnapshotService.
+    public static Path save(AggregatorState state, WeightDecay decay, Map<TopicPartition, Long> offsets,
+                            Path directory, int retained) throws IOException {
+        Instant createdAt = Instant.now();
+        PendingSnapshot pending = open(directory, createdAt);
+        try {
+            SnapshotCodec.encode(state, decay, offsets, createdAt, pending.output());
+        } catch (IOException | RuntimeException e) {
+            pending.discard();
+            throw e;
+        }
+        return pending.commit(retained);
+    }
+
+    // -- Открывает временный файл для снимка с данным временем создания.
+    static PendingSnapshot open(Path directory, Instant createdAt) throws IOException {
+        return PendingSnapshot.open(directory, directory.resolve(FILE_PREFIX + createdAt.toEpochMilli() + FILE_SUFFIX));
+    }
+
+    static LoadedSnapshot read(Path file) throws IOException {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+             CheckedInputStream checked = new CheckedInputStream(raw, new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            LoadedSnapshot snapshot = SnapshotCodec.decode(in);
+            long actual = checked.getChecksum().getValue();
+            long expected = in.readLong();
+            if (actual != expected) {
+                throw new IOException("Контрольная сумма снимка не совпадает");
+            }
+            return snapshot;
+        }
+    }
+
+    // -- Снимки от новых к старым.
+    static List<Path> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+                    })
+                    .sorted(Comparator.comparingLong(SnapshotFiles::createdAtMillis).reversed())
+                    .toList();
+        }
+    }
+
+    static void deleteOld(Path directory, int retained) throws IOException {
+        List<Path> snapshots = list(directory);
+        int kept = Math.min(Math.max(1, retained), snapshots.size());
+        for (Path old : snapshots.subList(kept, snapshots.size())) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private static long createdAtMillis(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package aggregator.snapshot;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.kafka.producer.SimilarityProducer;
+import aggregator.service.AggregatorService;
+import aggregator.service.WeightDecay;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодические снимки состояния агрегатора на локальном диске.
+ * Снимок кодируется в потоке обработки (там же, где меняются матрицы) прямо во временный файл через буфер
+ * фиксированного размера, без копии состояния в куче; fsync, переименование и удаление старых снимков
+ * выполняются в отдельном потоке. Время, на которое кодирование останавливает обработку действий,
+ * пишется в таймер aggregator.snapshot.encode. Вместе с матрицами сохраняются
+ * смещения топика действий пользователей, поэтому после перезапуска чтение продолжается с места снимка,
+ * а не с начала топика.
+ */
+@Component
+@Profile("!recompute")
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SnapshotService {
+    AggregatorService aggregatorService;
+    SimilarityProducer producer;
+    AggregatorProperties.Snapshot properties;
+    // -- Масштаб весов текущей конфигурации; снимок с другим масштабом восстанавливать нельзя.
+    WeightDecay decay;
+    ExecutorService writer;
+    Timer encodeTimer;
+
+    // -- Смещение, с которого нужно продолжить чтение каждой партиции: offset последней обработанной записи + 1.
+    Map<TopicPartition, Long> processedOffsets = new ConcurrentHashMap<>();
+
+    @NonFinal
+    Instant lastSnapshotAt = Instant.now();
+    @NonFinal
+    boolean dirty;
+    @NonFinal
+    Future<?> pendingWrite;
+
+    public SnapshotService(AggregatorService aggregatorService, SimilarityProducer producer,
+                           AggregatorProperties properties, MeterRegistry meterRegistry) {
+        this.aggregatorService = aggregatorService;
+        this.producer = producer;
+        this.properties = properties.getSnapshot();
+        this.decay = WeightDecay.from(properties.getDecay());
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aggregator-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.encodeTimer = Timer.builder("aggregator.snapshot.encode")
+                .description("Время записи снимка в потоке обработки, на которое останавливается чтение действий")
+                .register(meterRegistry);
+
+        if (this.properties.isEnabled()) {
+            restoreLatest();
+        }
+    }
+
+    // -- Смещения, на которые нужно переставить consumer при назначении партиций.
+    public Map<TopicPartition, Long> getProcessedOffsets() {
+        return properties.isEnabled() ? Map.copyOf(processedOffsets) : Map.of();
+    }
+
+    // -- Отмечает запись топика как обработанную. Вызывается из потока обработки.
+    public void recordProcessed(TopicPartition partition, long offset) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        processedOffsets.put(partition, offset + 1);
+        dirty = true;
+    }
+
+    // -- Делает снимок, если с прошлого прошло больше интервала и есть необработанные снимком изменения.
+    // -- Если предыдущий снимок еще пишется на диск, новый откладывается до следующего вызова.
+    public void maybeSnapshot() {
+        if (!properties.isEnabled() || !dirty || hasUnconfirmedScores()) {
+            return;
+        }
+        if (Duration.between(lastSnapshotAt, Instant.now()).compareTo(properties.getInterval()) < 0) {
+            return;
+        }
+        if (pendingWrite != null && !pendingWrite.isDone()) {
+            return;
+        }
+        takeSnapshot();
+    }
+
+    // -- Есть ли оценки, отправленные в незавершенной транзакции или ожидающие повторной отправки после отката.
+    // -- Их пачки уже применены к матрицам, но не зафиксированы, поэтому снимок с такими весами потерял бы их.
+    private boolean hasUnconfirmedScores() {
+        return producer.hasUncommitted() || aggregatorService.hasRequeued();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // -- К этому моменту контейнер слушателя уже остановлен, поэтому матрицы можно читать из этого потока.
+        // -- Оценки незавершенных и откаченных транзакций в снимок не входят, поэтому состояние с ними не сохраняется:
+        // -- после перезапуска пачки будут перечитаны с предыдущего снимка и оценки посчитаются заново.
+        if (properties.isEnabled() && dirty && !hasUnconfirmedScores()) {
+            waitForPendingWrite();
+            takeSnapshot();
+        } else if (properties.isEnabled() && hasUnconfirmedScores()) {
+            log.warn("Снимок при остановке не сохранен: есть оценки схожести из незафиксированных транзакций");
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Запись снимка не завершилась за отведенное время");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void takeSnapshot() {
+        Instant createdAt = Instant.now();
+        long started = System.nanoTime();
+        PendingSnapshot pending;
+        long bytes;
+        try {
+            pending = SnapshotFiles.open(properties.getDirectory(), createdAt);
+        } catch (IOException e) {
+            log.error("Ошибка при создании файла снимка в {}", properties.getDirectory(), e);
+            return;
+        }
+        try {
+            bytes = SnapshotCodec.encode(aggregatorService.getState(), decay, Map.copyOf(processedOffsets),
+                    createdAt, pending.output());
+        } catch (IOException | RuntimeException e) {
+            pending.discard();
+            log.error("Ошибка при создании снимка состояния агрегатора", e);
+            return;
+        }
+        long stallNanos = System.nanoTime() - started;
+        encodeTimer.record(stallNanos, TimeUnit.NANOSECONDS);
+        dirty = false;
+        lastSnapshotAt = createdAt;
+        pendingWrite = writer.submit(() -> commit(pending));
+        log.info("Снимок состояния записан за {} мс, байт: {}", TimeUnit.NANOSECONDS.toMillis(stallNanos), bytes);
+    }
+
+    private void commit(PendingSnapshot pending) {
+        try {
+            Path target = pending.commit(properties.getRetained());
+            log.info("Снимок состояния сохранен: файл={}", target);
+        } catch (IOException e) {
+            log.error("Ошибка при записи снимка состояния в {}", properties.getDirectory(), e);
+        }
+    }
+
+    private void restoreLatest() {
+        for (Path file : listSnapshots()) {
+            try {
+                LoadedSnapshot snapshot = SnapshotFiles.read(file);
+                if (!snapshot.decay().equals(decay)) {
+                    log.error("Снимок {} сохранен с затуханием весов {}, а в конфигурации {}: веса в разном масштабе. "
+                            + "Состояние нужно пересчитать профилем recompute", file, snapshot.decay(), decay);
+                    continue;
+                }
+                aggregatorService.restoreState(snapshot.state());
+                processedOffsets.putAll(snapshot.offsets());
+                log.info("Агрегатор восстановлен из снимка {} от {}, смещения: {}",
+                        file, snapshot.createdAt(), snapshot.offsets());
+                return;
+            } catch (IOException e) {
+                log.warn("Не удалось прочитать снимок {}, пробуем предыдущий: {}", file, e.getMessage());
+            }
+        }
+        log.info("Снимки состояния в {} не найдены, агрегатор начинает с пустого состояния",
+                properties.getDirectory());
+    }
+
+    private List<Path> listSnapshots() {
+        try {
+            return SnapshotFiles.list(properties.getDirectory());
+        } catch (IOException e) {
+            log.warn("Не удалось получить список снимков в {}: {}", properties.getDirectory(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void waitForPendingWrite() {
+        if (pendingWrite == null) {
+            return;
+        }
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Предыдущий снимок не записан: {}", e.getMessage());
+        }
+    }
+}
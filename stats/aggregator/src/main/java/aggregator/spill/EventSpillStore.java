@@ -0,0 +1,247 @@
+package aggregator.spill;
+
+import aggregator.matrix.LongDoubleConsumer;
+import aggregator.matrix.LongLongHashMap;
+import aggregator.matrix.SparseMatrix;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Сегмент на диске с векторами весов выгруженных из памяти событий.
+ * Файл только дописывается: запись события — eventId, число пользователей, пары (userId, weight)
+ * и CRC32 записи. Для каждого события действительна последняя запись; старые записи
+ * вычищаются компактизацией, когда мертвых байт становится больше живых.
+ * Запись о событии не удаляется и после его загрузки обратно: если процесс упадет до следующего снимка,
+ * событие восстановится из сегмента, а недостающие действия будут перечитаны из топика.
+ * Не потокобезопасен: используется только из потока обработки действий.
+ */
+@Slf4j
+public class EventSpillStore {
+    private static final String FILE_NAME = "events.seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int CELL_BYTES = Long.BYTES + Double.BYTES;
+    private static final int TRAILER_BYTES = Integer.BYTES;
+    // -- Компактизация не запускается, пока мертвых байт меньше этого порога.
+    private static final long MIN_COMPACTION_BYTES = 16L << 20;
+
+    private final Path directory;
+    private final Path file;
+
+    // -- Позиция и длина последней записи каждого события.
+    // -- Структура: {eventId -> position}, {eventId -> length}
+    private final LongLongHashMap positions = new LongLongHashMap();
+    private final LongLongHashMap lengths = new LongLongHashMap();
+    private long liveBytes;
+    private long fileSize;
+    private FileChannel channel;
+
+    // -- Если существующий сегмент не удается прочитать, агрегатор не запускается: без полного индекса
+    // -- выгруженные события начали бы накапливаться с нуля, а новые записи легли бы после непроверенного хвоста.
+    public EventSpillStore(Path directory) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            try {
+                channel = open(file);
+                scan();
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException("Не удалось прочитать сегмент выгруженных событий " + file
+                        + ": исправьте ошибку чтения или перенесите файл, выгруженные события в нем будут потеряны", e);
+            }
+            log.info("Загружен индекс выгруженных событий: событий={}, файл={}, размер={} байт",
+                    positions.size(), file, fileSize);
+        }
+    }
+
+    public boolean contains(long eventId) {
+        return positions.containsKey(eventId);
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    // -- Дописывает в сегмент строку события из матрицы весов {eventId -> {userId -> weight}}.
+    public void spill(long eventId, SparseMatrix eventUserWeights) throws IOException {
+        int count = eventUserWeights.rowSize(eventId);
+        int length = HEADER_BYTES + count * CELL_BYTES + TRAILER_BYTES;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putLong(eventId);
+        record.putInt(count);
+        eventUserWeights.forEachInRow(eventId, (userId, weight) -> {
+            record.putLong(userId);
+            record.putDouble(weight);
+        });
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length - TRAILER_BYTES);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        FileChannel target = channel();
+        long position = fileSize;
+        while (record.hasRemaining()) {
+            target.write(record, position + record.position());
+        }
+        fileSize += length;
+        index(eventId, position, length);
+    }
+
+    // -- Передает веса последней записи события в action; false, если событие не выгружалось.
+    public boolean load(long eventId, LongDoubleConsumer action) throws IOException {
+        if (!positions.containsKey(eventId)) {
+            return false;
+        }
+        ByteBuffer record = read(positions.get(eventId, 0L), (int) lengths.get(eventId, 0L));
+        if (record == null || record.getLong(0) != eventId) {
+            throw new IOException("Поврежденная запись события " + eventId + " в " + file);
+        }
+        int count = record.getInt(Long.BYTES);
+        record.position(HEADER_BYTES);
+        for (int i = 0; i < count; i++) {
+            action.accept(record.getLong(), record.getDouble());
+        }
+        return true;
+    }
+
+    // -- Сбрасывает дописанные записи на диск и при необходимости компактизирует сегмент.
+    public void sync() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.force(false);
+        long deadBytes = fileSize - liveBytes;
+        if (deadBytes > liveBytes && deadBytes > MIN_COMPACTION_BYTES) {
+            compact();
+        }
+    }
+
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Ошибка при закрытии сегмента выгруженных событий {}: {}", file, e.getMessage());
+        }
+    }
+
+    // -- Восстанавливает индекс по файлу. Недописанный или поврежденный хвост (например, после падения
+    // -- во время записи) отрезается.
+    private void scan() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES + TRAILER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            int count = header.getInt(Long.BYTES);
+            long length = HEADER_BYTES + (long) count * CELL_BYTES + TRAILER_BYTES;
+            if (count < 0 || position + length > size) {
+                break;
+            }
+            ByteBuffer record = read(position, (int) length);
+            if (record == null) {
+                break;
+            }
+            index(record.getLong(0), position, length);
+            position += length;
+        }
+        if (position < size) {
+            log.warn("Сегмент {} обрезан с {} до {} байт: хвост поврежден", file, size, position);
+            channel.truncate(position);
+        }
+        fileSize = position;
+    }
+
+    // -- Читает запись целиком; null, если контрольная сумма не совпала.
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(record, position);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length - TRAILER_BYTES);
+        return record.getInt(length - TRAILER_BYTES) == (int) crc.getValue() ? record : null;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Неожиданный конец сегмента " + file);
+            }
+        }
+    }
+
+    private void index(long eventId, long position, long length) {
+        liveBytes -= lengths.get(eventId, 0L);
+        positions.put(eventId, position);
+        lengths.put(eventId, length);
+        liveBytes += length;
+    }
+
+    // -- Переписывает последние записи событий в новый файл и атомарно подменяет им сегмент.
+    private void compact() throws IOException {
+        long started = System.nanoTime();
+        long before = fileSize;
+        int events = positions.size();
+        long[] eventIds = new long[events];
+        long[] oldPositions = new long[events];
+        int[] index = new int[1];
+        positions.forEach((eventId, position) -> {
+            eventIds[index[0]] = eventId;
+            oldPositions[index[0]++] = position;
+        });
+
+        Path temp = directory.resolve(FILE_NAME + TEMP_SUFFIX);
+        long[] newPositions = new long[events];
+        long written = 0;
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < events; i++) {
+                long length = lengths.get(eventIds[i], 0L);
+                newPositions[i] = written;
+                long copied = 0;
+                while (copied < length) {
+                    copied += channel.transferTo(oldPositions[i] + copied, length - copied, target);
+                }
+                written += length;
+            }
+            target.force(true);
+        }
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = open(file);
+
+        for (int i = 0; i < events; i++) {
+            positions.put(eventIds[i], newPositions[i]);
+        }
+        fileSize = written;
+        liveBytes = written;
+        log.info("Сегмент выгруженных событий компактизирован: {} -> {} байт за {} мс",
+                before, written, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            Files.createDirectories(directory);
+            channel = open(file);
+            fileSize = channel.size();
+        }
+        return channel;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
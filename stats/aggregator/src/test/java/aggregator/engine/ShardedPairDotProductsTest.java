@@ -0,0 +1,100 @@
+package aggregator.engine;
+
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class ShardedPairDotProductsTest {
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+    // -- Оценка пары — само скалярное произведение, чтобы сравнивать результат движка напрямую.
+    private static final PairScorer DOT_PRODUCT = (eventA, eventB, dotProduct) -> dotProduct;
+
+    @Test
+    void shardedFlushMatchesLocalFlushAndBruteForce() {
+        Random random = new Random(17);
+        SparseMatrix userEventWeights = new HashSparseMatrix();
+        LocalPairDotProducts local = new LocalPairDotProducts();
+        try (ShardedPairDotProducts sharded = new ShardedPairDotProducts(4)) {
+            for (int batch = 0; batch < 200; batch++) {
+                for (int i = 0; i < 100; i++) {
+                    long userId = random.nextInt(60);
+                    long eventId = random.nextInt(40);
+                    double oldWeight = userEventWeights.get(userId, eventId, 0.0);
+                    double newWeight = (1 + random.nextInt(3)) * 0.4;
+                    // -- Как в агрегаторе: вес только растет, одна ячейка может измениться в пачке несколько раз.
+                    if (userEventWeights.contains(userId, eventId) && oldWeight >= newWeight) {
+                        continue;
+                    }
+                    local.weightChanged(userId, eventId, oldWeight);
+                    sharded.weightChanged(userId, eventId, oldWeight);
+                    userEventWeights.put(userId, eventId, newWeight);
+                }
+
+                List<EventSimilarityAvro> expected = local.flush(userEventWeights, DOT_PRODUCT, NOW);
+                List<EventSimilarityAvro> actual = sharded.flush(userEventWeights, DOT_PRODUCT, NOW);
+
+                assertThat(actual).hasSameSizeAs(expected);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertThat(actual.get(i).getEventA()).isEqualTo(expected.get(i).getEventA());
+                    assertThat(actual.get(i).getEventB()).isEqualTo(expected.get(i).getEventB());
+                    assertThat(actual.get(i).getScore()).isCloseTo(expected.get(i).getScore(), within(1e-9));
+                }
+            }
+
+            SparseMatrix bruteForce = bruteForce(userEventWeights);
+            assertThat(sharded.size()).isEqualTo(bruteForce.size());
+            assertThat(local.size()).isEqualTo(bruteForce.size());
+            bruteForce.forEach((eventA, eventB, dotProduct) -> {
+                assertThat(sharded.get(eventA, eventB)).isCloseTo(dotProduct, within(1e-9));
+                assertThat(local.get(eventA, eventB)).isCloseTo(dotProduct, within(1e-9));
+            });
+        }
+    }
+
+    @Test
+    void flushWithoutChangesReturnsNothing() {
+        try (ShardedPairDotProducts sharded = new ShardedPairDotProducts(3)) {
+            assertThat(sharded.flush(new HashSparseMatrix(), DOT_PRODUCT, NOW)).isEmpty();
+        }
+    }
+
+    @Test
+    void failedFlushDropsPendingChanges() {
+        SparseMatrix userEventWeights = new HashSparseMatrix();
+        userEventWeights.put(1, 10, 1.0);
+        userEventWeights.put(1, 20, 1.0);
+        try (ShardedPairDotProducts sharded = new ShardedPairDotProducts(2)) {
+            sharded.weightChanged(1, 10, 0.0);
+            sharded.weightChanged(1, 20, 0.0);
+            PairScorer failing = (eventA, eventB, dotProduct) -> {
+                throw new IllegalStateException("scorer");
+            };
+
+            assertThatThrownBy(() -> sharded.flush(userEventWeights, failing, NOW))
+                    .isInstanceOf(IllegalStateException.class);
+
+            assertThat(sharded.flush(userEventWeights, DOT_PRODUCT, NOW)).isEmpty();
+        }
+    }
+
+    // -- Скалярные произведения всех пар с нуля: сумма минимумов весов общих пользователей.
+    private static SparseMatrix bruteForce(SparseMatrix userEventWeights) {
+        SparseMatrix dotProducts = new HashSparseMatrix();
+        userEventWeights.forEach((userId, eventId, weight) ->
+                userEventWeights.forEachInRow(userId, (otherEventId, otherWeight) -> {
+                    if (eventId < otherEventId) {
+                        dotProducts.add(eventId, otherEventId, Math.min(weight, otherWeight));
+                    }
+                }));
+        return dotProducts;
+    }
+}
@@ -0,0 +1,49 @@
+package aggregator.matrix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashSparseMatrixTest {
+
+    @Test
+    void sizeTracksCellsAcrossRows() {
+        HashSparseMatrix matrix = new HashSparseMatrix();
+
+        matrix.put(1L, 2L, 0.5);
+        matrix.put(1L, 2L, 0.7);
+        assertThat(matrix.add(1L, 3L, 0.25)).isEqualTo(0.25);
+        assertThat(matrix.add(0L, 0L, 1.0)).isEqualTo(1.0);
+        assertThat(matrix.size()).isEqualTo(3);
+        assertThat(matrix.rowSize(1L)).isEqualTo(2);
+
+        assertThat(matrix.remove(1L, 2L)).isTrue();
+        assertThat(matrix.remove(1L, 2L)).isFalse();
+        assertThat(matrix.size()).isEqualTo(2);
+
+        matrix.removeRow(1L);
+        assertThat(matrix.size()).isEqualTo(1);
+        assertThat(matrix.rowSize(1L)).isZero();
+        assertThat(matrix.get(1L, 3L, -1.0)).isEqualTo(-1.0);
+        assertThat(matrix.contains(0L, 0L)).isTrue();
+    }
+
+    @Test
+    void forEachVisitsEveryCell() {
+        HashSparseMatrix matrix = new HashSparseMatrix();
+        for (long row = 0; row < 50; row++) {
+            for (long column = row; column < 50; column += 7) {
+                matrix.put(row, column, row * 100 + column);
+            }
+        }
+
+        Map<Long, Double> visited = new HashMap<>();
+        matrix.forEach((row, column, value) -> visited.put(row * 100 + column, value));
+
+        assertThat((long) visited.size()).isEqualTo(matrix.size());
+        visited.forEach((key, value) -> assertThat(value).isEqualTo((double) key));
+    }
+}
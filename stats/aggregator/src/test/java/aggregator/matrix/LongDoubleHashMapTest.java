@@ -0,0 +1,126 @@
+package aggregator.matrix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongDoubleHashMapTest {
+
+    @Test
+    void removeShiftsCollidingKeysBackIntoChain() {
+        int capacity = LongDoubleHashMap.capacityFor(64);
+        int mask = capacity - 1;
+        // -- Ключи с одним и тем же начальным слотом в конце массива: цепочка переходит через границу.
+        List<Long> keys = keysInSlot(mask, mask, 5);
+        LongDoubleHashMap map = new LongDoubleHashMap(64);
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), i);
+        }
+
+        assertThat(map.remove(keys.get(1))).isTrue();
+        assertThat(map.remove(keys.get(1))).isFalse();
+
+        assertThat(map.size()).isEqualTo(4);
+        assertThat(map.containsKey(keys.get(1))).isFalse();
+        for (int i : new int[]{0, 2, 3, 4}) {
+            assertThat(map.get(keys.get(i), -1.0)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void removeKeepsKeysFromNeighbouringSlotsReachable() {
+        int capacity = LongDoubleHashMap.capacityFor(64);
+        int mask = capacity - 1;
+        List<Long> first = keysInSlot(mask, 3, 3);
+        List<Long> second = keysInSlot(mask, 4, 2);
+        LongDoubleHashMap map = new LongDoubleHashMap(64);
+        // -- Ключи слота 4 вытесняются цепочкой слота 3 и после удаления не должны сдвигаться левее своего слота.
+        map.put(first.get(0), 1.0);
+        map.put(second.get(0), 2.0);
+        map.put(first.get(1), 3.0);
+        map.put(second.get(1), 4.0);
+        map.put(first.get(2), 5.0);
+
+        map.remove(first.get(0));
+        map.remove(second.get(0));
+
+        assertThat(map.get(first.get(1), -1.0)).isEqualTo(3.0);
+        assertThat(map.get(second.get(1), -1.0)).isEqualTo(4.0);
+        assertThat(map.get(first.get(2), -1.0)).isEqualTo(5.0);
+        assertThat(map.size()).isEqualTo(3);
+    }
+
+    @Test
+    void freeKeyIsStoredSeparately() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+
+        map.put(0L, 1.5);
+        assertThat(map.addTo(0L, 2.0)).isEqualTo(3.5);
+        assertThat(map.size()).isEqualTo(1);
+
+        Map<Long, Double> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertThat(visited).containsExactly(Map.entry(0L, 3.5));
+
+        assertThat(map.remove(0L)).isTrue();
+        assertThat(map.containsKey(0L)).isFalse();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    void addToStartsMissingKeyFromZero() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+
+        assertThat(map.addTo(7L, 0.25)).isEqualTo(0.25);
+        assertThat(map.addTo(7L, 0.5)).isEqualTo(0.75);
+        assertThat(map.get(7L, 0.0)).isEqualTo(0.75);
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        Map<Long, Double> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            // -- Узкий диапазон ключей, включая 0 и отрицательные, дает длинные цепочки и частые удаления.
+            long key = random.nextInt(512) - 64;
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    double value = random.nextDouble();
+                    map.put(key, value);
+                    expected.put(key, value);
+                }
+                case 1 -> assertThat(map.addTo(key, 1.0)).isEqualTo(expected.merge(key, 1.0, Double::sum));
+                case 2 -> assertThat(map.remove(key)).isEqualTo(expected.remove(key) != null);
+                default -> assertThat(map.get(key, Double.NaN)).isEqualTo(expected.getOrDefault(key, Double.NaN));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        Map<Long, Double> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual).isEqualTo(expected);
+
+        map.clear();
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.containsKey(expected.keySet().iterator().next())).isFalse();
+    }
+
+    // -- Ненулевые ключи, у которых начальный слот в таблице с данной маской равен slot.
+    static List<Long> keysInSlot(int mask, int slot, int count) {
+        List<Long> keys = new ArrayList<>(count);
+        for (long key = 1; keys.size() < count; key++) {
+            if ((LongDoubleHashMap.hash(key) & mask) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,58 @@
+package aggregator.matrix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongLongHashMapTest {
+
+    @Test
+    void removeShiftsCollidingKeysAndKeepsExactValues() {
+        int mask = LongDoubleHashMap.capacityFor(16) - 1;
+        List<Long> keys = LongDoubleHashMapTest.keysInSlot(mask, mask, 4);
+        LongLongHashMap map = new LongLongHashMap(16);
+        // -- Значения больше 2^53 не представимы в double точно.
+        long base = (1L << 60) + 1;
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), base + i);
+        }
+
+        assertThat(map.remove(keys.get(0))).isTrue();
+
+        assertThat(map.size()).isEqualTo(3);
+        for (int i = 1; i < keys.size(); i++) {
+            assertThat(map.get(keys.get(i), -1L)).isEqualTo(base + i);
+        }
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(11);
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(512) - 64;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    long value = random.nextLong();
+                    map.put(key, value);
+                    expected.put(key, value);
+                }
+                case 1 -> assertThat(map.remove(key)).isEqualTo(expected.remove(key) != null);
+                default -> assertThat(map.get(key, Long.MIN_VALUE))
+                        .isEqualTo(expected.getOrDefault(key, Long.MIN_VALUE));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual).isEqualTo(expected);
+    }
+}
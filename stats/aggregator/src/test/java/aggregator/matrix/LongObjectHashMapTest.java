@@ -0,0 +1,55 @@
+package aggregator.matrix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongObjectHashMapTest {
+
+    @Test
+    void removeShiftsCollidingKeysAndReturnsValue() {
+        int mask = LongDoubleHashMap.capacityFor(16) - 1;
+        List<Long> keys = LongDoubleHashMapTest.keysInSlot(mask, mask, 4);
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(16);
+        for (long key : keys) {
+            map.put(key, "v" + key);
+        }
+
+        assertThat(map.remove(keys.get(0))).isEqualTo("v" + keys.get(0));
+        assertThat(map.remove(keys.get(0))).isNull();
+
+        assertThat(map.size()).isEqualTo(3);
+        for (long key : keys.subList(1, keys.size())) {
+            assertThat(map.get(key)).isEqualTo("v" + key);
+        }
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(7);
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(512) - 64;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+                case 1 -> assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+                default -> assertThat(map.get(key)).isEqualTo(expected.get(key));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        Map<Long, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,189 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Сверка инкрементального расчета с расчетом в лоб. Агрегатор обрабатывает пачками поток случайных действий
+ * с фиксированным seed, а параллельно тест хранит итоговые веса пользователей по событиям. После каждой пачки
+ * каждая отправленная оценка сравнивается с sum(min(wA, wB)) / sqrt(sum(wA) * sum(wB)) по весам на конец пачки.
+ * Так проверяются обратный индекс {userId -> события}, кэш обратных норм, шарды, top-k и затухание весов.
+ */
+class AggregatorServiceEquivalenceTest {
+    private static final Map<ActionTypeAvro, Double> WEIGHTS =
+            Map.of(ActionTypeAvro.VIEW, 0.4, ActionTypeAvro.REGISTER, 0.8, ActionTypeAvro.LIKE, 1.0);
+    private static final ActionTypeAvro[] TYPES = ActionTypeAvro.values();
+    private static final Instant EPOCH = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Duration HALF_LIFE = Duration.ofDays(2);
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void exactScoresMatchBruteForceAndCoverEveryTouchedPair() {
+        replay(1, false, false);
+    }
+
+    @Test
+    void shardedEngineMatchesBruteForce() {
+        replay(4, false, false);
+    }
+
+    @Test
+    void topKEmitsOnlyExactScores() {
+        replay(1, true, false);
+    }
+
+    @Test
+    void decayedScoresMatchBruteForceOverScaledWeights() {
+        replay(1, false, true);
+    }
+
+    @Test
+    void allModesTogetherMatchBruteForce() {
+        replay(4, true, true);
+    }
+
+    private void replay(int shards, boolean topK, boolean decay) {
+        AggregatorProperties properties = new AggregatorProperties();
+        properties.setWeights(WEIGHTS);
+        properties.getEviction().setDirectory(spillDirectory);
+        properties.getEngine().setShards(shards);
+        properties.getTopK().setEnabled(topK);
+        properties.getTopK().setK(3);
+        properties.getDecay().setEnabled(decay);
+        properties.getDecay().setHalfLife(HALF_LIFE);
+        properties.getDecay().setEpoch(EPOCH);
+        AggregatorService service = new AggregatorService(null, properties);
+
+        Random random = new Random(42);
+        Weights weights = new Weights();
+        int emitted = 0;
+        try {
+            for (int batch = 0; batch < 150; batch++) {
+                List<UserActionAvro> actions = new ArrayList<>();
+                int size = 1 + random.nextInt(40);
+                for (int i = 0; i < size; i++) {
+                    actions.add(randomAction(random, decay));
+                }
+                Set<List<Long>> touched = weights.apply(actions);
+
+                List<EventSimilarityAvro> sent = service.applyActions(actions);
+
+                Set<List<Long>> sentPairs = new HashSet<>();
+                for (EventSimilarityAvro similarity : sent) {
+                    long eventA = similarity.getEventA();
+                    long eventB = similarity.getEventB();
+                    assertThat(eventA).isLessThan(eventB);
+                    assertThat(sentPairs.add(List.of(eventA, eventB))).as("пара отправлена дважды").isTrue();
+                    assertThat(similarity.getScore()).as("оценка пары (%d, %d)", eventA, eventB)
+                            .isCloseTo(weights.similarity(eventA, eventB), within(1e-9));
+                }
+                if (topK) {
+                    // -- В режиме top-k отправляются изменившие топ пары и пары, выпавшие из топа.
+                    sentPairs.removeAll(touched);
+                    sentPairs.forEach(pair -> assertThat(weights.dotProduct(pair.get(0), pair.get(1))).isPositive());
+                } else {
+                    assertThat(sentPairs).isEqualTo(touched);
+                }
+                emitted += sent.size();
+            }
+        } finally {
+            service.shutdown();
+        }
+        assertThat(emitted).isGreaterThan(1000);
+    }
+
+    // -- Пользователи и события выбираются со смещением к малым номерам: появляются и популярные события
+    // -- с длинными строками, и пары, которые меняются во многих пачках. Время действия идет не по порядку.
+    private static UserActionAvro randomAction(Random random, boolean decay) {
+        long userId = skewed(random, 120);
+        long eventId = skewed(random, 60);
+        ActionTypeAvro type = TYPES[random.nextInt(TYPES.length)];
+        Instant timestamp = decay
+                ? EPOCH.plus(Duration.ofMinutes(random.nextInt((int) Duration.ofDays(12).toMinutes())))
+                : EPOCH;
+        return new UserActionAvro(userId, eventId, type, timestamp);
+    }
+
+    private static long skewed(Random random, int bound) {
+        double value = random.nextDouble();
+        return 1 + (long) (value * value * bound);
+    }
+
+    // -- Итоговые веса: максимум по действиям пользователя с событием, с затуханием — вес,
+    // -- умноженный на 2^((t - epoch) / halfLife).
+    private static final class Weights {
+        // -- Структура: {eventId -> {userId -> weight}}
+        private final Map<Long, Map<Long, Double>> eventUserWeights = new HashMap<>();
+        // -- Структура: {userId -> {eventId -> weight}}
+        private final Map<Long, Map<Long, Double>> userEventWeights = new HashMap<>();
+
+        // -- Применяет пачку и возвращает пары (eventA, eventB), eventA < eventB, у которых изменился вес
+        // -- хотя бы одного общего пользователя: ровно их оценки агрегатор обязан пересчитать.
+        private Set<List<Long>> apply(List<UserActionAvro> actions) {
+            Map<Long, Set<Long>> changed = new HashMap<>();
+            for (UserActionAvro action : actions) {
+                double weight = WEIGHTS.get(action.getActionType()) * Math.pow(2.0, exponent(action));
+                Map<Long, Double> users = eventUserWeights.computeIfAbsent(action.getEventId(), id -> new HashMap<>());
+                if (users.getOrDefault(action.getUserId(), 0.0) < weight) {
+                    users.put(action.getUserId(), weight);
+                    userEventWeights.computeIfAbsent(action.getUserId(), id -> new HashMap<>())
+                            .put(action.getEventId(), weight);
+                    changed.computeIfAbsent(action.getUserId(), id -> new HashSet<>()).add(action.getEventId());
+                }
+            }
+            Set<List<Long>> touched = new HashSet<>();
+            changed.forEach((userId, eventIds) -> {
+                for (long eventId : eventIds) {
+                    for (long otherEventId : userEventWeights.get(userId).keySet()) {
+                        if (otherEventId != eventId) {
+                            touched.add(List.of(Math.min(eventId, otherEventId), Math.max(eventId, otherEventId)));
+                        }
+                    }
+                }
+            });
+            return touched;
+        }
+
+        // -- Без затухания все действия происходят в эпоху, и множитель равен 1.
+        private static double exponent(UserActionAvro action) {
+            return (double) Duration.between(EPOCH, action.getTimestamp()).toMillis() / HALF_LIFE.toMillis();
+        }
+
+        private double dotProduct(long eventA, long eventB) {
+            Map<Long, Double> usersB = eventUserWeights.get(eventB);
+            double dotProduct = 0.0;
+            for (Map.Entry<Long, Double> user : eventUserWeights.get(eventA).entrySet()) {
+                dotProduct += Math.min(user.getValue(), usersB.getOrDefault(user.getKey(), 0.0));
+            }
+            return dotProduct;
+        }
+
+        private double similarity(long eventA, long eventB) {
+            return dotProduct(eventA, eventB) / Math.sqrt(sum(eventA) * sum(eventB));
+        }
+
+        private double sum(long eventId) {
+            return eventUserWeights.get(eventId).values().stream().mapToDouble(Double::doubleValue).sum();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AggregatorServiceTest {
+    @TempDir
+    Path spillDirectory;
+
+    AggregatorService service;
+
+    @BeforeEach
+    void setUp() {
+        // -- Любое изменение оценки после первой отправки подавляется.
+        service = service(properties -> properties.getEmission().setMinAbsoluteDelta(1.0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void requeuedPairIsSentAgainWithNextBatch() {
+        List<EventSimilarityAvro> sent = service.applyActions(List.of(
+                action(1, 10, ActionTypeAvro.VIEW),
+                action(1, 20, ActionTypeAvro.LIKE),
+                action(2, 10, ActionTypeAvro.LIKE)));
+        assertThat(sent).hasSize(1);
+        EventSimilarityAvro aborted = sent.get(0);
+
+        // -- Повторная доставка той же пачки не меняет весов, поэтому без возврата пары ничего не отправляется.
+        assertThat(service.applyActions(List.of(action(1, 10, ActionTypeAvro.VIEW)))).isEmpty();
+
+        service.requeue(sent);
+        assertThat(service.hasRequeued()).isTrue();
+        List<EventSimilarityAvro> resent = service.applyActions(List.of(action(1, 10, ActionTypeAvro.VIEW)));
+
+        assertThat(resent).hasSize(1);
+        assertThat(resent.get(0).getEventA()).isEqualTo(aborted.getEventA());
+        assertThat(resent.get(0).getEventB()).isEqualTo(aborted.getEventB());
+        assertThat(resent.get(0).getScore()).isEqualTo(aborted.getScore());
+        assertThat(service.hasRequeued()).isFalse();
+        assertThat(service.applyActions(List.of())).isEmpty();
+    }
+
+    @Test
+    void decayedScoresUseWeightsScaledByActionTime() {
+        service.shutdown();
+        Instant epoch = Instant.parse("2025-01-01T00:00:00Z");
+        service = service(properties -> {
+            properties.getDecay().setEnabled(true);
+            properties.getDecay().setHalfLife(Duration.ofDays(1));
+            properties.getDecay().setEpoch(epoch);
+        });
+
+        // -- Веса: (1, 10) = 1, (1, 20) = 2, (2, 20) = 1. Без затухания оценка была бы 1 / sqrt(2).
+        List<EventSimilarityAvro> sent = service.applyActions(List.of(
+                action(1, 10, ActionTypeAvro.LIKE, epoch),
+                action(1, 20, ActionTypeAvro.LIKE, epoch.plus(Duration.ofDays(1))),
+                action(2, 20, ActionTypeAvro.LIKE, epoch)));
+        assertThat(sent).singleElement().satisfies(similarity ->
+                assertThat(similarity.getScore()).isCloseTo(1 / Math.sqrt(3), within(1e-12)));
+
+        // -- Просмотр через три периода (0.4 * 8 = 3.2) перевешивает лайк того же пользователя в эпоху.
+        sent = service.applyActions(List.of(action(1, 10, ActionTypeAvro.VIEW, epoch.plus(Duration.ofDays(3)))));
+        assertThat(sent).singleElement().satisfies(similarity ->
+                assertThat(similarity.getScore()).isCloseTo(2 / Math.sqrt(3.2 * 3), within(1e-12)));
+    }
+
+    private AggregatorService service(Consumer<AggregatorProperties> configurer) {
+        AggregatorProperties properties = new AggregatorProperties();
+        properties.setWeights(Map.of(ActionTypeAvro.VIEW, 0.4, ActionTypeAvro.REGISTER, 0.8,
+                ActionTypeAvro.LIKE, 1.0));
+        properties.getEviction().setDirectory(spillDirectory);
+        configurer.accept(properties);
+        return new AggregatorService(null, properties);
+    }
+
+    private static UserActionAvro action(long userId, long eventId, ActionTypeAvro type) {
+        return action(userId, eventId, type, Instant.parse("2026-01-01T00:00:00Z"));
+    }
+
+    private static UserActionAvro action(long userId, long eventId, ActionTypeAvro type, Instant timestamp) {
+        return new UserActionAvro(userId, eventId, type, timestamp);
+    }
+}
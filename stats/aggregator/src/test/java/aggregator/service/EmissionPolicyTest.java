@@ -0,0 +1,85 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmissionPolicyTest {
+    private static final Instant START = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Test
+    void suppressesChangesBelowThresholds() {
+        EmissionPolicy policy = policy(0.05, 0.1, Duration.ZERO);
+
+        assertThat(policy.shouldEmit(1, 2, 0.50, START)).isTrue();
+        assertThat(policy.shouldEmit(1, 2, 0.53, START)).isFalse();
+        // -- Абсолютный порог пройден, относительный (0.04 / 0.5) — нет.
+        assertThat(policy.shouldEmit(1, 2, 0.54, START)).isFalse();
+        assertThat(policy.shouldEmit(1, 2, 0.56, START)).isTrue();
+        // -- Изменение считается от последней отправленной оценки, а не от подавленной.
+        assertThat(policy.shouldEmit(1, 2, 0.60, START)).isFalse();
+    }
+
+    @Test
+    void drainsSuppressedScoreOfQuietPairAfterMaxStaleness() {
+        EmissionPolicy policy = policy(0.05, 0.0, Duration.ofMinutes(8));
+        policy.shouldEmit(1, 2, 0.50, START);
+        policy.shouldEmit(1, 2, 0.51, START.plusSeconds(60));
+        policy.shouldEmit(1, 2, 0.52, START.plusSeconds(120));
+
+        assertThat(drain(policy, START.plusSeconds(300)).size()).isZero();
+
+        // -- За 1/8 интервала до срока пара уходит заранее с последней подавленной оценкой.
+        SparseMatrix drained = drain(policy, START.plusSeconds(7 * 60));
+        assertThat(drained.size()).isEqualTo(1);
+        assertThat(drained.get(1, 2, 0.0)).isEqualTo(0.52);
+
+        // -- Отправленная оценка становится новой точкой отсчета и повторно не отдается.
+        assertThat(policy.shouldEmit(1, 2, 0.53, START.plusSeconds(8 * 60))).isFalse();
+        assertThat(drain(policy, START.plusSeconds(8 * 60)).size()).isZero();
+    }
+
+    @Test
+    void emittedOrForgottenPairIsNotDrained() {
+        EmissionPolicy policy = policy(0.05, 0.0, Duration.ofMinutes(1));
+        policy.shouldEmit(1, 2, 0.50, START);
+        policy.shouldEmit(1, 2, 0.51, START);
+        policy.shouldEmit(3, 4, 0.50, START);
+        policy.shouldEmit(3, 4, 0.51, START);
+
+        assertThat(policy.shouldEmit(1, 2, 0.60, START.plusSeconds(10))).isTrue();
+        policy.forget(3, 4);
+
+        assertThat(drain(policy, START.plusSeconds(600)).size()).isZero();
+    }
+
+    @Test
+    void disabledPolicyEmitsEverything() {
+        EmissionPolicy policy = policy(0.0, 0.0, Duration.ofMinutes(1));
+
+        assertThat(policy.isEnabled()).isFalse();
+        assertThat(policy.shouldEmit(1, 2, 0.5, START)).isTrue();
+        assertThat(policy.shouldEmit(1, 2, 0.5, START)).isTrue();
+        assertThat(drain(policy, START.plusSeconds(600)).size()).isZero();
+    }
+
+    private static SparseMatrix drain(EmissionPolicy policy, Instant now) {
+        SparseMatrix drained = new HashSparseMatrix();
+        policy.drainStale(now, drained::put);
+        return drained;
+    }
+
+    private static EmissionPolicy policy(double absolute, double relative, Duration maxStaleness) {
+        AggregatorProperties.Emission properties = new AggregatorProperties.Emission();
+        properties.setMinAbsoluteDelta(absolute);
+        properties.setMinRelativeDelta(relative);
+        properties.setMaxStaleness(maxStaleness);
+        return new EmissionPolicy(properties);
+    }
+}
@@ -0,0 +1,85 @@
+package aggregator.service;
+
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NeighbourIndexTest {
+
+    @Test
+    void reportsEntriesAndEvictionsFromTop() {
+        NeighbourIndex index = new NeighbourIndex(true, 2);
+        SparseMatrix evicted = new HashSparseMatrix();
+
+        assertThat(index.update(1, 2, 0.5, evicted)).isTrue();
+        assertThat(index.update(1, 3, 0.6, evicted)).isTrue();
+        // -- Пара 1-4 хуже топа события 1, но входит в пустой топ события 4.
+        assertThat(index.update(1, 4, 0.1, evicted)).isTrue();
+        assertThat(index.update(1, 5, 0.9, evicted)).isTrue();
+
+        assertThat(evicted.contains(1, 2)).isTrue();
+        assertThat(index.contains(1, 2)).isTrue();
+        assertThat(index.update(1, 3, 0.6, evicted)).isFalse();
+    }
+
+    @Test
+    void nonPositiveScoreLeavesTop() {
+        NeighbourIndex index = new NeighbourIndex(true, 2);
+        SparseMatrix evicted = new HashSparseMatrix();
+        index.update(1, 2, 0.5, evicted);
+
+        assertThat(index.update(1, 2, 0.0, evicted)).isTrue();
+        assertThat(index.contains(1, 2)).isFalse();
+        assertThat(index.update(1, 3, -0.1, evicted)).isFalse();
+    }
+
+    @Test
+    void forgetNeighbourFreesSlotInPartnerTop() {
+        NeighbourIndex index = new NeighbourIndex(true, 2);
+        SparseMatrix evicted = new HashSparseMatrix();
+        index.update(1, 2, 0.5, evicted);
+        index.update(1, 3, 0.6, evicted);
+
+        assertThat(index.forgetNeighbour(1, 2)).isTrue();
+        assertThat(index.forgetNeighbour(1, 2)).isFalse();
+        index.forget(2);
+
+        assertThat(index.contains(1, 2)).isFalse();
+        // -- В топе события 1 освободилось место: новый сосед входит без вытеснения.
+        assertThat(index.update(1, 4, 0.1, evicted)).isTrue();
+        assertThat(evicted.size()).isZero();
+    }
+
+    @Test
+    void neighboursOfReturnsCopyOfTop() {
+        NeighbourIndex index = new NeighbourIndex(true, 2);
+        SparseMatrix evicted = new HashSparseMatrix();
+        index.update(1, 2, 0.5, evicted);
+        index.update(1, 3, 0.6, evicted);
+
+        long[] neighbours = index.neighboursOf(1);
+        // -- Изменение топа после копирования не затрагивает полученный массив.
+        index.update(1, 4, 0.9, evicted);
+
+        assertThat(neighbours).containsExactlyInAnyOrder(2, 3);
+        assertThat(index.neighboursOf(1)).containsExactlyInAnyOrder(3, 4);
+        assertThat(index.neighboursOf(5)).isEmpty();
+        assertThat(new NeighbourIndex(false, 0).neighboursOf(1)).isEmpty();
+    }
+
+    @Test
+    void disabledIndexPassesEveryPair() {
+        NeighbourIndex index = new NeighbourIndex(false, 0);
+
+        assertThat(index.update(1, 2, 0.5, new HashSparseMatrix())).isTrue();
+        assertThat(index.forgetNeighbour(1, 2)).isFalse();
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThatThrownBy(() -> new NeighbourIndex(true, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
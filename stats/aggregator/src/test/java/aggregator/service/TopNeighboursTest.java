@@ -0,0 +1,76 @@
+package aggregator.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopNeighboursTest {
+
+    @Test
+    void rootIsWorstNeighbour() {
+        TopNeighbours top = new TopNeighbours(3);
+        top.add(1, 0.5);
+        top.add(2, 0.2);
+        top.add(3, 0.9);
+
+        assertThat(top.isFull()).isTrue();
+        assertThat(top.minScore()).isEqualTo(0.2);
+
+        assertThat(top.replaceMin(4, 0.7)).isEqualTo(2);
+        assertThat(top.minScore()).isEqualTo(0.5);
+        assertThat(top.indexOf(2)).isNegative();
+        assertThat(top.indexOf(4)).isNotNegative();
+    }
+
+    @Test
+    void updateAtReportsUnchangedScore() {
+        TopNeighbours top = new TopNeighbours(2);
+        top.add(1, 0.5);
+
+        assertThat(top.updateAt(top.indexOf(1), 0.5)).isFalse();
+        assertThat(top.updateAt(top.indexOf(1), 0.6)).isTrue();
+        assertThat(top.minScore()).isEqualTo(0.6);
+    }
+
+    @Test
+    void keepsHeapOrderUnderRandomOperations() {
+        Random random = new Random(3);
+        int capacity = 16;
+        TopNeighbours top = new TopNeighbours(capacity);
+        Map<Long, Double> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            long id = random.nextInt(64);
+            double score = random.nextDouble();
+            int index = top.indexOf(id);
+            if (index >= 0) {
+                if (random.nextBoolean()) {
+                    top.removeAt(index);
+                    expected.remove(id);
+                } else {
+                    top.updateAt(index, score);
+                    expected.put(id, score);
+                }
+            } else if (!top.isFull()) {
+                top.add(id, score);
+                expected.put(id, score);
+            } else if (score > top.minScore()) {
+                double worst = expected.values().stream().mapToDouble(Double::doubleValue).min().orElseThrow();
+                long evicted = top.replaceMin(id, score);
+                assertThat(expected.remove(evicted)).isEqualTo(worst);
+                expected.put(id, score);
+            }
+
+            assertThat(top.size()).isEqualTo(expected.size());
+            if (!expected.isEmpty()) {
+                assertThat(top.minScore()).isEqualTo(expected.values().stream()
+                        .mapToDouble(Double::doubleValue).min().orElseThrow());
+            }
+        }
+        expected.keySet().forEach(id -> assertThat(top.indexOf(id)).isNotNegative());
+    }
+}
@@ -0,0 +1,67 @@
+package aggregator.service;
+
+import aggregator.kafka.config.AggregatorProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+// -- Те же значения проверяет WeightDecayTest анализатора: копии должны давать одинаковые множители.
+class WeightDecayTest {
+    private static final Instant EPOCH = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Duration HALF_LIFE = Duration.ofDays(1);
+
+    private final WeightDecay decay = WeightDecay.from(properties(true, HALF_LIFE));
+
+    @Test
+    void scaleDoublesEveryHalfLifeFromEpoch() {
+        assertThat(decay.scale(EPOCH)).isEqualTo(1.0);
+        assertThat(decay.scale(EPOCH.plus(Duration.ofDays(1)))).isEqualTo(2.0);
+        assertThat(decay.scale(EPOCH.plus(Duration.ofHours(12)))).isCloseTo(Math.sqrt(2.0), within(1e-15));
+        assertThat(decay.scale(EPOCH.minus(Duration.ofDays(2)))).isEqualTo(0.25);
+    }
+
+    @Test
+    void exponentIsClampedToPlusMinus960() {
+        assertThat(decay.scale(EPOCH.plus(Duration.ofDays(5000)))).isEqualTo(Math.scalb(1.0, 960));
+        assertThat(decay.scale(EPOCH.minus(Duration.ofDays(5000)))).isEqualTo(Math.scalb(1.0, -960));
+    }
+
+    @Test
+    void scaleStopsGrowingAtOverflowAt() {
+        Instant overflowAt = decay.overflowAt();
+
+        assertThat(overflowAt).isEqualTo(EPOCH.plus(Duration.ofDays(960)));
+        assertThat(decay.scale(overflowAt)).isEqualTo(Math.scalb(1.0, 960));
+        assertThat(decay.scale(overflowAt.plus(Duration.ofDays(1)))).isEqualTo(decay.scale(overflowAt));
+        assertThat(decay.scale(overflowAt.minus(Duration.ofDays(1)))).isEqualTo(Math.scalb(1.0, 959));
+    }
+
+    @Test
+    void disabledDecayKeepsWeights() {
+        WeightDecay disabled = WeightDecay.from(properties(false, Duration.ZERO));
+
+        assertThat(disabled).isSameAs(WeightDecay.DISABLED);
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.scale(EPOCH.plus(Duration.ofDays(5000)))).isEqualTo(1.0);
+        assertThat(decay.isEnabled()).isTrue();
+    }
+
+    @Test
+    void enabledDecayRequiresPositiveHalfLife() {
+        assertThatThrownBy(() -> WeightDecay.from(properties(true, Duration.ZERO)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static AggregatorProperties.Decay properties(boolean enabled, Duration halfLife) {
+        AggregatorProperties.Decay properties = new AggregatorProperties.Decay();
+        properties.setEnabled(enabled);
+        properties.setHalfLife(halfLife);
+        properties.setEpoch(EPOCH);
+        return properties;
+    }
+}
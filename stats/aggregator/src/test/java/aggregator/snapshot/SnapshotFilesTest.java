@@ -0,0 +1,123 @@
+package aggregator.snapshot;
+
+import aggregator.engine.LocalPairDotProducts;
+import aggregator.engine.PairDotProducts;
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.LongDoubleHashMap;
+import aggregator.matrix.SparseMatrix;
+import aggregator.service.AggregatorState;
+import aggregator.service.WeightDecay;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotFilesTest {
+    private static final WeightDecay DECAY = new WeightDecay(Duration.ofDays(30), Instant.parse("2026-01-01T00:00:00Z"));
+    private static final Map<TopicPartition, Long> OFFSETS = Map.of(
+            new TopicPartition("stats.user-actions.v1", 0), 1234L,
+            new TopicPartition("stats.user-actions.v1", 1), 56L);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripRestoresStateDecayAndOffsets() throws IOException {
+        // -- Больше мегабайта ячеек, чтобы буфер записи сбрасывался несколько раз.
+        AggregatorState state = state(60_000);
+
+        Path file = SnapshotFiles.save(state, DECAY, OFFSETS, directory, 2);
+        LoadedSnapshot loaded = SnapshotFiles.read(file);
+
+        assertThat(Files.size(file)).isGreaterThan(1024 * 1024);
+        assertThat(loaded.decay()).isEqualTo(DECAY);
+        assertThat(loaded.offsets()).isEqualTo(OFFSETS);
+        assertThat(cells(loaded.state().eventUserWeights())).isEqualTo(cells(state.eventUserWeights()));
+        assertThat(entries(loaded.state().selfDotProducts())).isEqualTo(entries(state.selfDotProducts()));
+        assertThat(pairs(loaded.state().pairDotProducts())).isEqualTo(pairs(state.pairDotProducts()));
+    }
+
+    @Test
+    void readRejectsCorruptedContent() throws IOException {
+        Path file = SnapshotFiles.save(state(1_000), DECAY, OFFSETS, directory, 2);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            long position = raw.length() / 2;
+            raw.seek(position);
+            int value = raw.read();
+            raw.seek(position);
+            raw.write(value ^ 0x01);
+        }
+
+        assertThatThrownBy(() -> SnapshotFiles.read(file))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Контрольная сумма");
+    }
+
+    @Test
+    void readRejectsTruncatedFile() throws IOException {
+        Path file = SnapshotFiles.save(state(1_000), DECAY, OFFSETS, directory, 2);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(raw.length() - 3);
+        }
+
+        assertThatThrownBy(() -> SnapshotFiles.read(file)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void saveKeepsOnlyRetainedSnapshots() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            SnapshotFiles.save(state(10), DECAY, OFFSETS, directory, 2);
+            Thread.sleep(2);
+        }
+
+        List<Path> snapshots = SnapshotFiles.list(directory);
+        assertThat(snapshots).hasSize(2);
+        try (var files = Files.list(directory)) {
+            assertThat(files.filter(file -> file.toString().endsWith(".tmp"))).isEmpty();
+        }
+    }
+
+    private static AggregatorState state(int events) {
+        SparseMatrix weights = new HashSparseMatrix();
+        LongDoubleHashMap selfDotProducts = new LongDoubleHashMap();
+        PairDotProducts pairDotProducts = new LocalPairDotProducts();
+        for (long eventId = 0; eventId < events; eventId++) {
+            weights.put(eventId, eventId % 97, 0.4 + eventId % 3 * 0.3);
+            selfDotProducts.put(eventId, eventId * 0.5);
+            if (eventId > 0) {
+                pairDotProducts.put(eventId - 1, eventId, eventId * 0.25);
+            }
+        }
+        return new AggregatorState(weights, selfDotProducts, pairDotProducts);
+    }
+
+    private static Map<List<Long>, Double> cells(SparseMatrix matrix) {
+        Map<List<Long>, Double> cells = new HashMap<>();
+        matrix.forEach((row, column, value) -> cells.put(List.of(row, column), value));
+        return cells;
+    }
+
+    private static Map<List<Long>, Double> pairs(PairDotProducts pairDotProducts) {
+        Map<List<Long>, Double> cells = new HashMap<>();
+        pairDotProducts.forEach((eventA, eventB, value) -> cells.put(List.of(eventA, eventB), value));
+        return cells;
+    }
+
+    private static Map<Long, Double> entries(LongDoubleHashMap map) {
+        Map<Long, Double> entries = new HashMap<>();
+        map.forEach(entries::put);
+        return entries;
+    }
+}
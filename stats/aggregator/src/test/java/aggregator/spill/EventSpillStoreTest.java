@@ -0,0 +1,111 @@
+package aggregator.spill;
+
+import aggregator.matrix.HashSparseMatrix;
+import aggregator.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventSpillStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenedStoreFindsLatestRecordOfEachEvent() throws IOException {
+        SparseMatrix weights = new HashSparseMatrix();
+        weights.put(1, 100, 0.4);
+        weights.put(2, 100, 0.8);
+        EventSpillStore store = new EventSpillStore(directory);
+        store.spill(1, weights);
+        store.spill(2, weights);
+        weights.put(1, 101, 1.0);
+        store.spill(1, weights);
+        store.sync();
+        store.close();
+
+        EventSpillStore reopened = new EventSpillStore(directory);
+
+        assertThat(reopened.size()).isEqualTo(2);
+        assertThat(reopened.contains(3)).isFalse();
+        assertThat(load(reopened, 1)).isEqualTo(Map.of(100L, 0.4, 101L, 1.0));
+        assertThat(load(reopened, 2)).isEqualTo(Map.of(100L, 0.8));
+        reopened.close();
+    }
+
+    @Test
+    void damagedTailIsTruncatedAndNewRecordsFollowLastValidOne() throws IOException {
+        SparseMatrix weights = new HashSparseMatrix();
+        weights.put(1, 100, 0.4);
+        weights.put(2, 200, 0.8);
+        EventSpillStore store = new EventSpillStore(directory);
+        store.spill(1, weights);
+        store.spill(2, weights);
+        store.close();
+        Path file = directory.resolve("events.seg");
+        long validSize = Files.size(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            // -- Вторая запись повреждена, за ней недописанный хвост.
+            raw.seek(validSize - 2);
+            raw.write(0x7F);
+            raw.seek(validSize);
+            raw.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0, 1, 9});
+        }
+
+        EventSpillStore reopened = new EventSpillStore(directory);
+
+        assertThat(reopened.contains(1)).isTrue();
+        assertThat(reopened.contains(2)).isFalse();
+        long firstRecordSize = Files.size(file);
+        assertThat(firstRecordSize).isLessThan(validSize);
+
+        weights.put(3, 300, 1.0);
+        reopened.spill(3, weights);
+        reopened.close();
+        EventSpillStore again = new EventSpillStore(directory);
+        assertThat(load(again, 1)).isEqualTo(Map.of(100L, 0.4));
+        assertThat(load(again, 3)).isEqualTo(Map.of(300L, 1.0));
+        again.close();
+    }
+
+    @Test
+    void syncCompactsSegmentWhenDeadBytesDominate() throws IOException {
+        SparseMatrix weights = new HashSparseMatrix();
+        // -- Запись события примерно 1.6 МБ: порог компактизации в 16 МБ мертвых байт достигается за 12 записей.
+        for (long userId = 1; userId <= 100_000; userId++) {
+            weights.put(1, userId, userId * 0.001);
+        }
+        weights.put(2, 7, 0.5);
+        EventSpillStore store = new EventSpillStore(directory);
+        store.spill(2, weights);
+        for (int i = 0; i < 12; i++) {
+            store.spill(1, weights);
+        }
+        Path file = directory.resolve("events.seg");
+        long before = Files.size(file);
+
+        store.sync();
+
+        assertThat(Files.size(file)).isLessThan(before / 10);
+        assertThat(load(store, 1)).hasSize(100_000).containsEntry(500L, 0.5);
+        assertThat(load(store, 2)).isEqualTo(Map.of(7L, 0.5));
+        store.close();
+
+        EventSpillStore reopened = new EventSpillStore(directory);
+        assertThat(load(reopened, 2)).isEqualTo(Map.of(7L, 0.5));
+        reopened.close();
+    }
+
+    private static Map<Long, Double> load(EventSpillStore store, long eventId) throws IOException {
+        Map<Long, Double> weights = new HashMap<>();
+        assertThat(store.load(eventId, weights::put)).isTrue();
+        return weights;
+    }
+}
@@ -0,0 +1,21 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// -- Экспоненциальное затухание весов действий; параметры должны совпадать с aggregator.decay.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.decay")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class DecayProperties {
+    boolean enabled = false;
+    Duration halfLife = Duration.ofDays(30);
+    Instant epoch = Instant.parse("2025-01-01T00:00:00Z");
+}
@@ -51,6 +51,8 @@ public class KafkaConsumerConfig {
         boolean autoCommit;
         String keyDeserializer;
         String valueDeserializer;
+        // -- read_committed: не читать оценки из отмененных транзакций агрегатора.
+        String isolationLevel = "read_uncommitted";
         String topicEventsSimilarity;
     }
 
@@ -91,6 +93,7 @@ public class KafkaConsumerConfig {
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, similarityConsumer.getKeyDeserializer());
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, similarityConsumer.getValueDeserializer());
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, similarityConsumer.isAutoCommit());
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, similarityConsumer.getIsolationLevel());
 
         log.debug("Создание similarityConsumerFactory с конфигурацией: {}", props);
 
@@ -0,0 +1,19 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// -- Последние события пользователей в памяти анализатора для затравки рекомендаций.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.recent-interactions")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RecentInteractionsProperties {
+    // -- Сколько последних событий хранить на пользователя; запросы с большим maxResult идут в базу.
+    int size = 50;
+    // -- Сколько пользователей держать в памяти; вытесненный пользователь снова читается из базы при запросе.
+    int maxUsers = 100_000;
+}
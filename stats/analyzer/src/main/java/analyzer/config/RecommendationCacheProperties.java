@@ -0,0 +1,33 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+// -- Кэш персональных рекомендаций в памяти анализатора.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.recommendation-cache")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RecommendationCacheProperties {
+    boolean enabled = true;
+    // -- Сколько хранится результат, даже если данные пользователя не менялись: веса с затуханием стареют.
+    Duration ttl = Duration.ofMinutes(5);
+    // -- Сколько результатов хранить; при переполнении теряются результаты давно не запрашивавших пользователей.
+    int maxUsers = 100_000;
+    Prewarm prewarm = new Prewarm();
+
+    // -- Фоновый пересчет рекомендаций для пользователей с новыми действиями.
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Prewarm {
+        boolean enabled = false;
+        Duration interval = Duration.ofSeconds(30);
+        // -- Размер выдачи, для которого считаются рекомендации; запросы с другим maxResults кэш не используют.
+        int maxResults = 10;
+    }
+}
@@ -0,0 +1,23 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// -- Расчет персональных рекомендаций.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.recommendations")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RecommendationsProperties {
+    Source source = Source.MEMORY;
+
+    public enum Source {
+        // -- Соседи и события пользователя из памяти, из базы читаются только оценки пользователя.
+        MEMORY,
+        // -- Один запрос к базе; при его ошибке — расчет в памяти.
+        DATABASE
+    }
+}
@@ -0,0 +1,17 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// -- Множества просмотренных событий пользователей в памяти анализатора.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.seen-events")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class SeenEventsProperties {
+    // -- Предел числа пользователей, чьи множества событий хранятся в памяти.
+    int maxUsers = 100_000;
+}
@@ -0,0 +1,18 @@
+package analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// -- Индекс похожих событий в памяти анализатора.
+@Configuration
+@ConfigurationProperties(prefix = "analyzer.similarity-index")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class SimilarityIndexProperties {
+    // -- Сколько лучших соседей хранить по каждому событию; 0 — всех. Без ограничения список популярного события
+    // -- растет с числом событий, а каждое его обновление копирует весь список.
+    int maxNeighbours = 200;
+}
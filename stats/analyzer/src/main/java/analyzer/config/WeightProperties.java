@@ -1,5 +1,6 @@
 package analyzer.config;
 
+import analyzer.model.ActionType;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.experimental.FieldDefaults;
@@ -14,4 +15,13 @@ public class WeightProperties {
     Double view;
     Double register;
     Double like;
+
+    // -- Вес действия данного типа.
+    public double weightOf(ActionType actionType) {
+        return switch (actionType) {
+            case VIEW -> view;
+            case REGISTER -> register;
+            case LIKE -> like;
+        };
+    }
 }
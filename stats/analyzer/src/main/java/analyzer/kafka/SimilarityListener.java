@@ -12,6 +12,8 @@ import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 
+import java.util.List;
+
 @Component
 @RequiredArgsConstructor
 @Slf4j
@@ -20,26 +22,28 @@ import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 public class SimilarityListener {
     SimilarityService similarityService;
 
+    // -- Слушатель получает всю пачку записей одного poll и сохраняет ее одним пакетным запросом.
     @KafkaListener(
             topics = "${spring.kafka.similarity-consumer.topic-events-similarity}",
-            containerFactory = "similarityKafkaListenerFactory"
+            containerFactory = "similarityKafkaListenerFactory",
+            batch = "true"
     )
-    public void handleSimilarity(
-            @Payload EventSimilarityAvro avro,
+    public void handleSimilarities(
+            @Payload List<EventSimilarityAvro> avros,
             Acknowledgment ack) {
 
-        log.info("Получен коэффициент схожести: value={}", avro);
+        log.info("Получена пачка из {} коэффициентов схожести", avros.size());
 
         try {
-            similarityService.handleSimilarity(avro);
+            similarityService.handleSimilarities(avros);
             ack.acknowledge();
-            log.debug("Коэффициент схожести успешно обработан: eventA={}, eventB={}",
-                    avro.getEventA(), avro.getEventB());
+            log.debug("Пачка из {} коэффициентов схожести успешно обработана", avros.size());
         } catch (DataIntegrityViolationException e) {
-            log.warn("Нарушение целостности данных для коэффициента: {}, ошибка: {}", avro, e.getMessage());
+            log.warn("Нарушение целостности данных в пачке из {} коэффициентов, ошибка: {}",
+                    avros.size(), e.getMessage());
             ack.acknowledge();
         } catch (Exception e) {
-            log.error("Критическая ошибка при обработке коэффициента схожести: {}", avro, e);
+            log.error("Критическая ошибка при обработке пачки из {} коэффициентов схожести", avros.size(), e);
             ack.acknowledge();
         }
     }
@@ -12,6 +12,8 @@ import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
+import java.util.List;
+
 @Component
 @RequiredArgsConstructor
 @Slf4j
@@ -20,26 +22,27 @@ import ru.practicum.ewm.stats.avro.UserActionAvro;
 public class UserActionListener {
     UserActionService userActionService;
 
+    // -- Слушатель получает всю пачку записей одного poll, записывает ее одним запросом и подтверждает один раз.
     @KafkaListener(
             topics = "${spring.kafka.user-consumer.topic-user-actions}",
-            containerFactory = "userActionKafkaListenerFactory"
+            containerFactory = "userActionKafkaListenerFactory",
+            batch = "true"
     )
-    public void handleUserAction(
-            @Payload UserActionAvro avro,
+    public void handleUserActions(
+            @Payload List<UserActionAvro> avros,
             Acknowledgment ack) {
 
-        log.info("Получено действие пользователя: value={}", avro);
+        log.info("Получена пачка из {} действий пользователей", avros.size());
 
         try {
-            userActionService.handleUserAction(avro);
+            userActionService.handleUserActions(avros);
             ack.acknowledge();
-            log.debug("Действие пользователя успешно обработано: userId={}, eventId={}",
-                    avro.getUserId(), avro.getEventId());
+            log.debug("Пачка из {} действий пользователей успешно обработана", avros.size());
         } catch (DataIntegrityViolationException e) {
-            log.warn("Нарушение целостности данных для действия: {}, ошибка: {}", avro, e.getMessage());
+            log.warn("Нарушение целостности данных в пачке из {} действий, ошибка: {}", avros.size(), e.getMessage());
             ack.acknowledge();
         } catch (Exception e) {
-            log.error("Критическая ошибка при обработке действия пользователя: {}", avro, e);
+            log.error("Критическая ошибка при обработке пачки из {} действий пользователей", avros.size(), e);
 
             ack.acknowledge();
         }
@@ -0,0 +1,11 @@
+package analyzer.repository;
+
+import analyzer.model.EventSimilarity;
+
+import java.util.Collection;
+
+// -- Пакетная запись оценок схожести в similarities и similarity_neighbours; подмешивается в EventSimilarityRepository.
+public interface EventSimilarityUpsertRepository {
+    // -- Вставляет пары или обновляет у существующих score и timestamp. Пары в similarities не должны повторяться.
+    void upsertAll(Collection<EventSimilarity> similarities);
+}
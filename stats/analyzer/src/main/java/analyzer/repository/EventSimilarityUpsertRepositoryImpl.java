@@ -0,0 +1,69 @@
+package analyzer.repository;
+
+import analyzer.model.EventSimilarity;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Запись оценок схожести одним пакетом JDBC вместо проверки и сохранения каждой пары через JPA:
+ * в similarities по строке на пару и в similarity_neighbours по строке на каждое направление пары.
+ * С reWriteBatchedInserts=true в URL драйвер PostgreSQL склеивает пакет в многострочные INSERT.
+ */
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+class EventSimilarityUpsertRepositoryImpl implements EventSimilarityUpsertRepository {
+    private static final String UPSERT = """
+            INSERT INTO similarities (event_a, event_b, score, timestamp)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (event_a, event_b) DO UPDATE
+            SET score = EXCLUDED.score, timestamp = EXCLUDED.timestamp
+            """;
+    private static final String UPSERT_NEIGHBOUR = """
+            INSERT INTO similarity_neighbours (source_event, neighbour_event, score, timestamp)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (source_event, neighbour_event) DO UPDATE
+            SET score = EXCLUDED.score, timestamp = EXCLUDED.timestamp
+            """;
+
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void upsertAll(Collection<EventSimilarity> similarities) {
+        if (similarities.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPSERT, similarities, similarities.size(), (statement, similarity) -> {
+            statement.setLong(1, similarity.getEventA());
+            statement.setLong(2, similarity.getEventB());
+            statement.setDouble(3, similarity.getScore());
+            statement.setTimestamp(4, Timestamp.from(similarity.getTimestamp()));
+        });
+        // -- Каждая пара записывается и в направленную таблицу, по строке на направление.
+        List<Neighbour> neighbours = new ArrayList<>(similarities.size() * 2);
+        for (EventSimilarity similarity : similarities) {
+            neighbours.add(new Neighbour(similarity.getEventA(), similarity.getEventB(),
+                    similarity.getScore(), similarity.getTimestamp()));
+            neighbours.add(new Neighbour(similarity.getEventB(), similarity.getEventA(),
+                    similarity.getScore(), similarity.getTimestamp()));
+        }
+        jdbcTemplate.batchUpdate(UPSERT_NEIGHBOUR, neighbours, neighbours.size(), (statement, neighbour) -> {
+            statement.setLong(1, neighbour.sourceEvent());
+            statement.setLong(2, neighbour.neighbourEvent());
+            statement.setDouble(3, neighbour.score());
+            statement.setTimestamp(4, Timestamp.from(neighbour.timestamp()));
+        });
+    }
+
+    // -- Строка similarity_neighbours: направление (sourceEvent -> neighbourEvent) пары similarities.
+    // -- Таблица читается и пишется только SQL-запросами, поэтому сущности JPA у нее нет.
+    private record Neighbour(long sourceEvent, long neighbourEvent, double score, Instant timestamp) {
+    }
+}
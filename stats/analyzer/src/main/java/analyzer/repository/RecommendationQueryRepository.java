@@ -0,0 +1,27 @@
+package analyzer.repository;
+
+import analyzer.model.Recommendation;
+
+import java.util.List;
+
+// -- Запросы расчета персональных рекомендаций к базе; подмешивается в UserActionRepository.
+public interface RecommendationQueryRepository {
+    // -- До limit рекомендаций пользователю по убыванию оценки вместе с событиями, по которым они найдены.
+    // -- Оценки — в масштабе сохраненных весов действий.
+    RecommendationRows findRecommendations(long userId, int limit);
+
+    // -- Передает consumer веса действий пользователя с событиями eventIds; события без действий пропускаются.
+    // -- Id и веса передаются примитивами: расчет в памяти не упаковывает их в Long и Double.
+    void forEachActionWeight(long userId, long[] eventIds, ActionWeightConsumer consumer);
+
+    // -- Получатель весов из forEachActionWeight.
+    @FunctionalInterface
+    interface ActionWeightConsumer {
+        void accept(long eventId, double weight);
+    }
+
+    // -- recentEventIds — последние события пользователя (затравка), candidateEventIds — оцененные кандидаты.
+    record RecommendationRows(List<Long> recentEventIds, List<Long> candidateEventIds,
+                              List<Recommendation> recommendations) {
+    }
+}
@@ -0,0 +1,140 @@
+package analyzer.repository;
+
+import analyzer.config.SimilarityIndexProperties;
+import analyzer.model.Recommendation;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Весь расчет рекомендаций в одном запросе (источник DATABASE): последние события пользователя, кандидаты среди
+ * их соседей в similarity_neighbours, которых пользователь еще не видел, до limit соседей каждого кандидата среди
+ * событий пользователя и средняя оценка пользователя по этим соседям, взвешенная схожестью. Те же шаги, что и расчет
+ * в памяти RecommendationsService, с тем же порядком при равных оценках.
+ * Как и индекс в памяти, запрос видит у каждого события только analyzer.similarity-index.max-neighbours лучших
+ * соседей: они читаются диапазоном индекса (source_event, score DESC) до фильтров, поэтому результаты источников
+ * совпадают при любом ограничении.
+ * Вместе с рекомендациями запрос возвращает события затравки и кандидатов, чтобы кэш знал, от чего зависит результат.
+ * Пользователь передается параметром, а не через CTE: так планировщик видит число его действий и проверяет
+ * события пользователя по индексу (user_id, event_id).
+ * Здесь же чтение весов действий пользователя для расчета в памяти: id событий передаются массивом bigint[],
+ * а веса читаются из ResultSet, без коллекций упакованных значений.
+ */
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+class RecommendationQueryRepositoryImpl implements RecommendationQueryRepository {
+    // -- Тип строки результата, столбец kind.
+    private static final int RECENT = 0;
+    private static final int CANDIDATE = 1;
+    private static final int RECOMMENDATION = 2;
+
+    private static final String SELECT_RECOMMENDATIONS = """
+            WITH recent AS (
+                SELECT ua.event_id
+                FROM user_actions ua
+                WHERE ua.user_id = :userId
+                ORDER BY ua.timestamp DESC
+                LIMIT :limit
+            ),
+            candidates AS (
+                SELECT sn.neighbour_event AS event_id
+                FROM recent
+                CROSS JOIN LATERAL (
+                    SELECT top.neighbour_event, top.score
+                    FROM similarity_neighbours top
+                    WHERE top.source_event = recent.event_id
+                    ORDER BY top.score DESC, top.neighbour_event
+                    LIMIT :maxNeighbours
+                ) sn
+                WHERE NOT EXISTS (
+                    SELECT 1
+                    FROM user_actions ua
+                    WHERE ua.user_id = :userId AND ua.event_id = sn.neighbour_event
+                )
+                GROUP BY sn.neighbour_event
+                ORDER BY MAX(sn.score) DESC, sn.neighbour_event
+                LIMIT :limit
+            ),
+            scored AS (
+                SELECT candidates.event_id, SUM(rated.action_weight * rated.score) / SUM(rated.score) AS score
+                FROM candidates
+                CROSS JOIN LATERAL (
+                    SELECT ua.action_weight, sn.score
+                    FROM (
+                        SELECT top.neighbour_event, top.score
+                        FROM similarity_neighbours top
+                        WHERE top.source_event = candidates.event_id
+                        ORDER BY top.score DESC, top.neighbour_event
+                        LIMIT :maxNeighbours
+                    ) sn
+                    JOIN user_actions ua
+                        ON ua.user_id = :userId AND ua.event_id = sn.neighbour_event
+                    ORDER BY sn.score DESC, sn.neighbour_event
+                    LIMIT :limit
+                ) rated
+                GROUP BY candidates.event_id
+                HAVING SUM(rated.score) <> 0
+            )
+            SELECT 0 AS kind, event_id, NULL::double precision AS score FROM recent
+            UNION ALL
+            SELECT 1, event_id, NULL FROM candidates
+            UNION ALL
+            (SELECT 2, event_id, score FROM scored WHERE score > 0 ORDER BY score DESC, event_id
+             LIMIT :limit)
+            """;
+
+    private static final String SELECT_ACTION_WEIGHTS =
+            "SELECT event_id, action_weight FROM user_actions WHERE user_id = ? AND event_id = ANY(?)";
+
+    NamedParameterJdbcTemplate jdbcTemplate;
+    SimilarityIndexProperties similarityIndexProperties;
+
+    @Override
+    public RecommendationRows findRecommendations(long userId, int limit) {
+        List<Long> recentEventIds = new ArrayList<>();
+        List<Long> candidateEventIds = new ArrayList<>();
+        List<Recommendation> recommendations = new ArrayList<>();
+        int maxNeighbours = similarityIndexProperties.getMaxNeighbours();
+        // -- LIMIT NULL в PostgreSQL снимает ограничение, как max-neighbours: 0 у индекса в памяти.
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("limit", limit)
+                .addValue("maxNeighbours", maxNeighbours > 0 ? maxNeighbours : null, Types.INTEGER);
+        jdbcTemplate.query(SELECT_RECOMMENDATIONS, parameters, resultSet -> {
+            long eventId = resultSet.getLong(2);
+            switch (resultSet.getInt(1)) {
+                case RECENT -> recentEventIds.add(eventId);
+                case CANDIDATE -> candidateEventIds.add(eventId);
+                case RECOMMENDATION -> recommendations.add(new Recommendation(eventId, resultSet.getDouble(3)));
+                default -> throw new IllegalStateException("Неизвестный тип строки: " + resultSet.getInt(1));
+            }
+        });
+        // -- UNION ALL не сохраняет порядок подзапроса.
+        recommendations.sort(Comparator.comparing(Recommendation::getScore, Comparator.reverseOrder())
+                .thenComparing(Recommendation::getEventId));
+        return new RecommendationRows(recentEventIds, candidateEventIds, recommendations);
+    }
+
+    // -- Драйвер PostgreSQL передает long[] как bigint[] без упаковки элементов.
+    @Override
+    public void forEachActionWeight(long userId, long[] eventIds, ActionWeightConsumer consumer) {
+        if (eventIds.length == 0) {
+            return;
+        }
+        jdbcTemplate.getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_ACTION_WEIGHTS);
+            statement.setLong(1, userId);
+            statement.setObject(2, eventIds);
+            return statement;
+        }, (RowCallbackHandler) resultSet -> consumer.accept(resultSet.getLong(1), resultSet.getDouble(2)));
+    }
+}
@@ -0,0 +1,14 @@
+package analyzer.repository;
+
+import analyzer.model.UserAction;
+
+import java.util.Collection;
+import java.util.Map;
+
+// -- Пакетная запись действий пользователей; подмешивается в UserActionRepository.
+public interface UserActionUpsertRepository {
+    // -- Вставляет действия или заменяет сохраненные, если вес нового больше, и прибавляет прирост весов
+    // -- к итогам событий. Пары (userId, eventId) в actions не должны повторяться.
+    // -- Возвращает новые итоги событий, итоги которых изменились: {eventId -> сумма весов}.
+    Map<Long, Double> upsertMaxWeights(Collection<UserAction> actions);
+}
@@ -0,0 +1,94 @@
+package analyzer.repository;
+
+import analyzer.model.UserAction;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Запись пачки действий одним запросом: столбцы передаются массивами и разворачиваются через unnest,
+ * поэтому на пачку приходится один запрос и один сетевой обмен независимо от ее размера.
+ * Существующее действие заменяется, только если вес нового больше, как и при обработке по одному.
+ * Тем же запросом на прирост весов обновляются итоги событий в event_interaction_totals.
+ */
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+class UserActionUpsertRepositoryImpl implements UserActionUpsertRepository {
+    // -- previous читает веса до изменения (все части запроса видят один снимок), changed возвращает только
+    // -- реально вставленные или увеличенные действия, и разница весов прибавляется к итогам их событий.
+    private static final String UPSERT = """
+            WITH incoming (user_id, event_id, action_type, action_weight, timestamp) AS (
+                SELECT * FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::double precision[], ?::timestamptz[])
+            ),
+            previous AS (
+                SELECT ua.user_id, ua.event_id, ua.action_weight
+                FROM user_actions ua
+                JOIN incoming USING (user_id, event_id)
+            ),
+            changed AS (
+                INSERT INTO user_actions (user_id, event_id, action_type, action_weight, timestamp)
+                SELECT * FROM incoming
+                ON CONFLICT (user_id, event_id) DO UPDATE
+                SET action_type = EXCLUDED.action_type,
+                    action_weight = EXCLUDED.action_weight,
+                    timestamp = EXCLUDED.timestamp
+                WHERE EXCLUDED.action_weight > user_actions.action_weight
+                RETURNING user_id, event_id, action_weight
+            ),
+            deltas AS (
+                SELECT changed.event_id, SUM(changed.action_weight - COALESCE(previous.action_weight, 0)) AS delta
+                FROM changed
+                LEFT JOIN previous USING (user_id, event_id)
+                GROUP BY changed.event_id
+            )
+            INSERT INTO event_interaction_totals (event_id, total_weight)
+            SELECT event_id, delta FROM deltas
+            ON CONFLICT (event_id) DO UPDATE
+            SET total_weight = event_interaction_totals.total_weight + EXCLUDED.total_weight
+            RETURNING event_id, total_weight
+            """;
+
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Map<Long, Double> upsertMaxWeights(Collection<UserAction> actions) {
+        if (actions.isEmpty()) {
+            return Map.of();
+        }
+        int size = actions.size();
+        Long[] userIds = new Long[size];
+        Long[] eventIds = new Long[size];
+        String[] actionTypes = new String[size];
+        Double[] weights = new Double[size];
+        // -- Время передается в ISO-8601 с зоной UTC и не зависит от часового пояса JVM и сессии.
+        String[] timestamps = new String[size];
+        int i = 0;
+        for (UserAction action : actions) {
+            userIds[i] = action.getUserId();
+            eventIds[i] = action.getEventId();
+            actionTypes[i] = action.getActionType().name();
+            weights[i] = action.getActionWeight();
+            timestamps[i] = action.getTimestamp().toString();
+            i++;
+        }
+        Map<Long, Double> totals = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPSERT);
+            statement.setArray(1, connection.createArrayOf("bigint", userIds));
+            statement.setArray(2, connection.createArrayOf("bigint", eventIds));
+            statement.setArray(3, connection.createArrayOf("varchar", actionTypes));
+            statement.setArray(4, connection.createArrayOf("float8", weights));
+            statement.setArray(5, connection.createArrayOf("timestamptz", timestamps));
+            return statement;
+        }, resultSet -> {
+            totals.put(resultSet.getLong(1), resultSet.getDouble(2));
+        });
+        return totals;
+    }
+}
@@ -0,0 +1,125 @@
+package analyzer.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Копия таблицы event_interaction_totals в памяти: сумма весов действий по каждому событию.
+ * Загружается при запуске, до старта слушателей Kafka и gRPC-сервера, а затем после фиксации каждой пачки
+ * получает итоги, которые вернул пакетный upsert действий, — не приращения, поэтому расхождение с таблицей
+ * не накапливается. Веса хранятся в масштабе таблицы user_actions (с затуханием — в масштабе эпохи).
+ * Итоги лежат в хеш-таблице с открытой адресацией на примитивных массивах: ни запрос, ни обновление
+ * не упаковывают идентификаторы и суммы. Запросы читают таблицу под общей блокировкой, пачки пишут под
+ * исключительной; пачка фиксируется раз в несколько сотен действий, поэтому читатели почти не ждут.
+ */
+@Component
+@Slf4j
+public class EventInteractionTotals {
+    private static final String SELECT_TOTALS = "SELECT event_id, total_weight FROM event_interaction_totals";
+    // -- Метка свободного слота; такого идентификатора события не бывает.
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // -- Структура: {eventIds[i] -> totals[i]}, занято не больше половины слотов.
+    private long[] eventIds = emptyTable(MIN_CAPACITY);
+    private double[] totals = new double[MIN_CAPACITY];
+    private int size;
+
+    public EventInteractionTotals(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void load() {
+        lock.writeLock().lock();
+        try {
+            jdbcTemplate.query(SELECT_TOTALS, resultSet -> {
+                putMax(resultSet.getLong(1), resultSet.getDouble(2));
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Загружены суммы весов взаимодействий для {} событий", size);
+    }
+
+    // -- Заменяет итоги событий новыми значениями из таблицы. Вес действия только растет, поэтому итог события
+    // -- тоже; больший итог новее, и пачки, зафиксированные параллельно, могут применяться в любом порядке.
+    public void update(Map<Long, Double> changedTotals) {
+        lock.writeLock().lock();
+        try {
+            changedTotals.forEach(this::putMax);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // -- Суммы весов в порядке eventIds; у событий без действий — 0.
+    public double[] get(List<Long> eventIds) {
+        double[] result = new double[eventIds.size()];
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < result.length; i++) {
+                int slot = slotOf(this.eventIds, eventIds.get(i));
+                result[i] = this.eventIds[slot] == EMPTY ? 0.0 : totals[slot];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    // -- Вызывается под исключительной блокировкой.
+    private void putMax(long eventId, double total) {
+        int slot = slotOf(eventIds, eventId);
+        if (eventIds[slot] != EMPTY) {
+            totals[slot] = Math.max(totals[slot], total);
+            return;
+        }
+        eventIds[slot] = eventId;
+        totals[slot] = total;
+        if (++size * 2 > eventIds.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldEventIds = eventIds;
+        double[] oldTotals = totals;
+        eventIds = emptyTable(oldEventIds.length * 2);
+        totals = new double[eventIds.length];
+        for (int i = 0; i < oldEventIds.length; i++) {
+            if (oldEventIds[i] != EMPTY) {
+                int slot = slotOf(eventIds, oldEventIds[i]);
+                eventIds[slot] = oldEventIds[i];
+                totals[slot] = oldTotals[i];
+            }
+        }
+    }
+
+    // -- Слот события либо первый свободный слот в цепочке линейного пробирования.
+    private static int slotOf(long[] table, long eventId) {
+        int mask = table.length - 1;
+        long hash = eventId * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != EMPTY && table[slot] != eventId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long[] emptyTable(int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
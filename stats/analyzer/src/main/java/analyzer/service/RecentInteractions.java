@@ -0,0 +1,127 @@
+package analyzer.service;
+
+import analyzer.config.RecentInteractionsProperties;
+import analyzer.repository.UserActionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Последние события, с которыми взаимодействовал пользователь, от новых к старым, не больше size на пользователя.
+ * Пользователь попадает в память при первом запросе рекомендаций: его события читаются из user_actions
+ * по индексу (user_id, timestamp DESC). Дальше список обновляет UserActionService по каждому действию
+ * после фиксации его транзакции, и запрос рекомендаций читает его из памяти без обращения к базе.
+ * Повторное действие с тем же событием переносит событие в начало списка, поэтому в нем нет повторов.
+ * Список пользователя неизменяемый и при обновлении заменяется новым (copy-on-write). Пользователи хранятся
+ * в UserStore: при переполнении вытесняются те, кто дольше всего не запрашивал рекомендации и не действовал.
+ */
+@Component
+@Slf4j
+public class RecentInteractions {
+    private final UserActionRepository userActionRepository;
+    private final int size;
+    // -- Структура: {userId -> последние события}
+    private final UserStore<Recent> users;
+
+    public RecentInteractions(UserActionRepository userActionRepository, RecentInteractionsProperties properties) {
+        this.userActionRepository = userActionRepository;
+        this.size = Math.max(1, properties.getSize());
+        this.users = new UserStore<>(properties.getMaxUsers());
+    }
+
+    // -- До limit последних событий пользователя, от новых к старым.
+    public List<Long> findRecentEventIds(long userId, int limit) {
+        if (limit > size) {
+            return load(userId, limit).eventIds(limit);
+        }
+        // -- Действия, зафиксированные во время чтения базы, копятся в заготовке и сливаются с прочитанным,
+        // -- а зафиксированные раньше запрос к базе уже видит.
+        Recent recent = users.getOrLoad(userId, Recent.EMPTY, id -> load(id, size),
+                (loaded, recorded) -> loaded.merge(recorded, size));
+        return recent.eventIds(limit);
+    }
+
+    // -- Учитывает действие пользователя, если его события уже в памяти или загружаются;
+    // -- остальные загрузятся из базы при запросе. Вызывается после фиксации транзакции действия.
+    public void record(long userId, long eventId, Instant timestamp) {
+        users.update(userId, recent -> recent.with(eventId, timestamp.toEpochMilli(), size));
+    }
+
+    private Recent load(long userId, int limit) {
+        List<Object[]> rows = userActionRepository.findRecentInteractions(userId, PageRequest.of(0, limit));
+        long[] eventIds = new long[rows.size()];
+        long[] timestamps = new long[rows.size()];
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] = (Long) rows.get(i)[0];
+            timestamps[i] = ((Instant) rows.get(i)[1]).toEpochMilli();
+        }
+        log.debug("Загружено {} последних событий пользователя userId={}", eventIds.length, userId);
+        return new Recent(eventIds, timestamps);
+    }
+
+    // -- События пользователя с временем последнего действия, от новых к старым. После создания не меняются.
+    private record Recent(long[] eventIds, long[] timestamps) {
+        static final Recent EMPTY = new Recent(new long[0], new long[0]);
+
+        List<Long> eventIds(int limit) {
+            int count = Math.min(limit, eventIds.length);
+            List<Long> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(eventIds[i]);
+            }
+            return result;
+        }
+
+        // -- Копия, в которой eventId стоит на месте своего последнего действия;
+        // -- самые старые события сверх size отбрасываются.
+        Recent with(long eventId, long timestamp, int size) {
+            int length = eventIds.length;
+            int existing = -1;
+            for (int i = 0; i < length; i++) {
+                if (eventIds[i] == eventId) {
+                    existing = i;
+                    break;
+                }
+            }
+            if (existing >= 0 && timestamps[existing] >= timestamp) {
+                return this;
+            }
+            int position = 0;
+            while (position < length && timestamps[position] >= timestamp) {
+                position++;
+            }
+            if (existing < 0 && position >= size) {
+                return this;
+            }
+
+            int newLength = existing >= 0 ? length : Math.min(length + 1, size);
+            long[] newEventIds = new long[newLength];
+            long[] newTimestamps = new long[newLength];
+            int target = 0;
+            for (int i = 0; i <= length && target < newLength; i++) {
+                if (i == position) {
+                    newEventIds[target] = eventId;
+                    newTimestamps[target++] = timestamp;
+                }
+                if (i < length && i != existing && target < newLength) {
+                    newEventIds[target] = eventIds[i];
+                    newTimestamps[target++] = timestamps[i];
+                }
+            }
+            return new Recent(newEventIds, newTimestamps);
+        }
+
+        // -- Копия с событиями обоих списков.
+        Recent merge(Recent other, int size) {
+            Recent result = this;
+            for (int i = 0; i < other.eventIds.length; i++) {
+                result = result.with(other.eventIds[i], other.timestamps[i], size);
+            }
+            return result;
+        }
+    }
+}
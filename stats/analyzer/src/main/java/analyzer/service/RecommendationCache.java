@@ -0,0 +1,237 @@
+package analyzer.service;
+
+import analyzer.config.RecommendationCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Готовые персональные рекомендации по пользователям. Результат хранится не дольше ttl и сбрасывается,
+ * когда у пользователя появляется новое действие или меняется оценка схожести события, от которого результат
+ * зависит: события-затравки (последние события пользователя) или кандидата. Любая пара, влияющая на выдачу,
+ * содержит одно из таких событий. Результат хранится для одного размера выдачи: запрос с другим maxResults
+ * пересчитывает его.
+ * Расчет идет вне блокировок карты: одновременные запросы одного пользователя ждут общий расчет, а не считают
+ * его заново. Сброс по пользователю или по событию, от которого зависит результат, пришедший во время расчета,
+ * не дает сохранить этот результат, поэтому в кэше не остается результатов, посчитанных по старым данным.
+ * Сбросы по другим событиям на идущий расчет не влияют.
+ * При переполнении UserStore вытесняются результаты пользователей, которые дольше всего их не запрашивали.
+ */
+@Component
+@Slf4j
+public class RecommendationCache {
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxUsers;
+    // -- Структура: {userId -> готовый результат}
+    private final UserStore<Entry> users;
+    // -- Структура: {eventId -> пользователи, результат которых зависит от оценок схожести события}.
+    // -- Множества меняются только внутри compute своего ключа.
+    private final Map<Long, Set<Long>> dependents = new ConcurrentHashMap<>();
+    // -- Пользователи с действиями после последнего прогрева.
+    private final Set<Long> activeUsers = ConcurrentHashMap.newKeySet();
+    // -- Идущие расчеты. Структура: {userId -> расчет}
+    private final Map<Long, Load> loads = new ConcurrentHashMap<>();
+
+    public RecommendationCache(RecommendationCacheProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.ttlNanos = properties.getTtl().toNanos();
+        this.maxUsers = Math.max(1, properties.getMaxUsers());
+        this.users = new UserStore<>(maxUsers, (userId, entry) -> unregister(userId, entry.dependencies()));
+    }
+
+    // -- Результат для пользователя из кэша или посчитанный loader. Loader вызывается без блокировок:
+    // -- первый запрос пользователя считает результат, а одновременные запросы с тем же limit ждут его.
+    public List<RecommendedEventProto> get(long userId, int limit, Supplier<Result> loader) {
+        if (!enabled) {
+            return loader.get().recommendations();
+        }
+        Entry cached = users.get(userId);
+        if (cached != null && cached.isValid(limit, System.nanoTime())) {
+            return cached.recommendations();
+        }
+
+        Load load = new Load(limit);
+        Load running = loads.putIfAbsent(userId, load);
+        if (running != null) {
+            return running.limit == limit ? await(running, loader) : loader.get().recommendations();
+        }
+        try {
+            // -- Расчет, закончившийся между проверкой кэша и регистрацией, уже сохранил результат.
+            cached = users.get(userId);
+            List<RecommendedEventProto> recommendations = cached != null && cached.isValid(limit, System.nanoTime())
+                    ? cached.recommendations()
+                    : store(userId, load, loader.get());
+            load.result.complete(recommendations);
+            return recommendations;
+        } catch (RuntimeException e) {
+            load.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(userId, load);
+        }
+    }
+
+    // -- Сбрасывает результат пользователя после его нового действия и отмечает его для прогрева.
+    public void invalidateUser(long userId) {
+        if (!enabled) {
+            return;
+        }
+        // -- Отметка ставится до удаления: если идущий расчет уже сохранил результат, удаление его уберет.
+        Load load = loads.get(userId);
+        if (load != null) {
+            load.userChanged = true;
+        }
+        remove(userId);
+        if (activeUsers.size() < maxUsers) {
+            activeUsers.add(userId);
+        }
+    }
+
+    // -- Сбрасывает результаты, зависящие от оценки схожести пары событий.
+    public void invalidateSimilarity(long eventA, long eventB) {
+        if (!enabled) {
+            return;
+        }
+        // -- Идущие расчеты запоминают события с измененными оценками до сброса зависимых результатов.
+        // -- Расчет, начатый после этого, уже видит новые оценки.
+        for (Load load : loads.values()) {
+            load.changedEvents.add(eventA);
+            load.changedEvents.add(eventB);
+        }
+        invalidateEvent(eventA);
+        invalidateEvent(eventB);
+    }
+
+    // -- Пользователи с действиями после предыдущего вызова.
+    public List<Long> drainActiveUsers() {
+        List<Long> result = new ArrayList<>(activeUsers.size());
+        Iterator<Long> userIds = activeUsers.iterator();
+        while (userIds.hasNext()) {
+            result.add(userIds.next());
+            userIds.remove();
+        }
+        return result;
+    }
+
+    // -- Сохраняет результат расчета, если за время расчета не сброшены ни пользователь, ни события,
+    // -- от которых результат зависит. Зависимости регистрируются до проверки: сброс события, пришедший после нее,
+    // -- найдет и удалит сохраненный результат.
+    private List<RecommendedEventProto> store(long userId, Load load, Result result) {
+        List<RecommendedEventProto> recommendations = List.copyOf(result.recommendations());
+        long[] dependencies = result.dependencies().stream().mapToLong(Long::longValue).distinct().toArray();
+        users.compute(userId, current -> {
+            if (current != null) {
+                unregister(userId, current.dependencies());
+            }
+            register(userId, dependencies);
+            if (load.isStale(dependencies)) {
+                unregister(userId, dependencies);
+                return null;
+            }
+            return new Entry(load.limit, System.nanoTime() + ttlNanos, recommendations, dependencies);
+        });
+        return recommendations;
+    }
+
+    // -- Результат чужого расчета. Если пользователь сброшен во время расчета, результат мог не учесть
+    // -- его новое действие, и он считается заново.
+    private static List<RecommendedEventProto> await(Load running, Supplier<Result> loader) {
+        List<RecommendedEventProto> recommendations;
+        try {
+            recommendations = running.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return running.userChanged ? loader.get().recommendations() : recommendations;
+    }
+
+    private void invalidateEvent(long eventId) {
+        Set<Long> userIds = dependents.remove(eventId);
+        if (userIds != null) {
+            userIds.forEach(this::remove);
+        }
+    }
+
+    private void remove(long userId) {
+        Entry removed = users.remove(userId);
+        if (removed != null) {
+            unregister(userId, removed.dependencies());
+        }
+    }
+
+    private void register(long userId, long[] eventIds) {
+        for (long eventId : eventIds) {
+            dependents.compute(eventId, (id, userIds) -> {
+                Set<Long> result = userIds != null ? userIds : new HashSet<>();
+                result.add(userId);
+                return result;
+            });
+        }
+    }
+
+    private void unregister(long userId, long[] eventIds) {
+        for (long eventId : eventIds) {
+            dependents.computeIfPresent(eventId, (id, userIds) -> {
+                userIds.remove(userId);
+                return userIds.isEmpty() ? null : userIds;
+            });
+        }
+    }
+
+    // -- Посчитанные рекомендации и события, от оценок схожести которых они зависят.
+    public record Result(List<RecommendedEventProto> recommendations, Collection<Long> dependencies) {
+        public static Result empty() {
+            return new Result(List.of(), List.of());
+        }
+    }
+
+    // -- Идущий расчет результата пользователя и сбросы, пришедшие во время него.
+    private static final class Load {
+        private final int limit;
+        private final CompletableFuture<List<RecommendedEventProto>> result = new CompletableFuture<>();
+        private final Set<Long> changedEvents = ConcurrentHashMap.newKeySet();
+        private volatile boolean userChanged;
+
+        private Load(int limit) {
+            this.limit = limit;
+        }
+
+        private boolean isStale(long[] dependencies) {
+            if (userChanged) {
+                return true;
+            }
+            if (changedEvents.isEmpty()) {
+                return false;
+            }
+            for (long eventId : dependencies) {
+                if (changedEvents.contains(eventId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record Entry(int limit, long expiresAt, List<RecommendedEventProto> recommendations,
+                         long[] dependencies) {
+        boolean isValid(int requestedLimit, long now) {
+            return limit == requestedLimit && now - expiresAt < 0;
+        }
+    }
+}
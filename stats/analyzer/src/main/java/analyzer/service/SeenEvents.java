@@ -0,0 +1,68 @@
+package analyzer.service;
+
+import analyzer.config.SeenEventsProperties;
+import analyzer.repository.UserActionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.stereotype.Component;
+
+import java.util.function.LongPredicate;
+
+/**
+ * События, с которыми взаимодействовал пользователь, в сжатом виде (Roaring bitmap).
+ * Нужны, чтобы исключать уже знакомые пользователю события при обходе соседей в памяти,
+ * вместо того чтобы передавать в запрос к базе список из тысяч id.
+ * Пользователь загружается из user_actions при первом запросе, дальше множество пополняет UserActionService
+ * после фиксации транзакции действия.
+ * Множество пользователя не меняется после публикации: новое событие добавляется в копию (copy-on-write),
+ * поэтому запросы читают его без блокировок. При переполнении UserStore первыми вытесняются множества
+ * пользователей, к которым дольше всего не обращались.
+ */
+@Component
+@Slf4j
+public class SeenEvents {
+    private final UserActionRepository userActionRepository;
+    // -- Структура: {userId -> события пользователя}
+    private final UserStore<Roaring64Bitmap> users;
+
+    public SeenEvents(UserActionRepository userActionRepository, SeenEventsProperties properties) {
+        this.userActionRepository = userActionRepository;
+        this.users = new UserStore<>(properties.getMaxUsers());
+    }
+
+    // -- Проверка «пользователь уже взаимодействовал с событием» по текущему множеству пользователя.
+    public LongPredicate seenBy(long userId) {
+        // -- Действия, зафиксированные во время чтения базы, копятся в заготовке и объединяются с прочитанным.
+        return users.getOrLoad(userId, new Roaring64Bitmap(), this::load, SeenEvents::union)::contains;
+    }
+
+    // -- Учитывает действие пользователя, если его множество уже в памяти или загружается;
+    // -- остальные загрузятся из базы при запросе. Вызывается после фиксации транзакции действия.
+    public void record(long userId, long eventId) {
+        users.update(userId, events -> with(events, eventId));
+    }
+
+    private Roaring64Bitmap load(long userId) {
+        Roaring64Bitmap seen = new Roaring64Bitmap();
+        userActionRepository.findEventIdsByUserId(userId).forEach(seen::addLong);
+        seen.runOptimize();
+        log.debug("Загружено {} событий пользователя userId={}", seen.getLongCardinality(), userId);
+        return seen;
+    }
+
+    // -- Прочитанное множество еще не опубликовано, поэтому события заготовки добавляются прямо в него.
+    private static Roaring64Bitmap union(Roaring64Bitmap loaded, Roaring64Bitmap recorded) {
+        loaded.or(recorded);
+        return loaded;
+    }
+
+    // -- Копия events с eventId; опубликованное множество не меняется.
+    private static Roaring64Bitmap with(Roaring64Bitmap events, long eventId) {
+        if (events.contains(eventId)) {
+            return events;
+        }
+        Roaring64Bitmap copy = events.clone();
+        copy.addLong(eventId);
+        return copy;
+    }
+}
@@ -0,0 +1,367 @@
+package analyzer.service;
+
+import analyzer.config.SimilarityIndexProperties;
+import analyzer.model.EventSimilarity;
+import analyzer.model.Recommendation;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * Соседи каждого события по убыванию оценки схожести, в памяти. Заполняется из таблицы similarities
+ * при запуске (до старта слушателей Kafka и gRPC-сервера) и обновляется SimilarityService после фиксации
+ * каждой пачки оценок.
+ * Список соседей события неизменяемый и при обновлении заменяется новым (copy-on-write), поэтому
+ * запросы читают его без блокировок. Изменения пачки группируются по событию, и список каждого затронутого
+ * события пересобирается один раз: горячее событие с d новыми парами копируется один раз, а не d раз.
+ */
+@Component
+@Slf4j
+public class SimilarityIndex {
+    private static final String SELECT_SIMILARITIES = "SELECT event_a, event_b, score FROM similarities";
+    private static final int FETCH_SIZE = 10_000;
+    private static final int INITIAL_CAPACITY = 64;
+    // -- Свободная ячейка множества событий; id событий положительные.
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxNeighbours;
+    // -- Структура: {eventId -> соседи по убыванию оценки}
+    private final Map<Long, Neighbours> neighbours = new ConcurrentHashMap<>();
+
+    public SimilarityIndex(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                           SimilarityIndexProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.maxNeighbours = properties.getMaxNeighbours() > 0 ? properties.getMaxNeighbours() : Integer.MAX_VALUE;
+    }
+
+    // -- Без транзакции драйвер PostgreSQL игнорирует fetchSize и читает всю таблицу в память.
+    // -- Строки читаются сразу в примитивные массивы направленных оценок, без объекта на каждую пару.
+    @PostConstruct
+    void load() {
+        Instant started = Instant.now();
+        DirectedScores rows = new DirectedScores();
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_SIMILARITIES);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, resultSet -> {
+            rows.addPair(resultSet.getLong(1), resultSet.getLong(2), resultSet.getDouble(3));
+        }));
+        apply(rows);
+        log.info("Индекс похожих событий загружен: пар={}, событий={}, за {} мс",
+                rows.size / 2, neighbours.size(), Duration.between(started, Instant.now()).toMillis());
+    }
+
+    // -- Обновляет оценки пар в списках обоих событий каждой пары. Пары в similarities не должны повторяться.
+    public void updateAll(Collection<EventSimilarity> similarities) {
+        DirectedScores changes = new DirectedScores();
+        for (EventSimilarity similarity : similarities) {
+            changes.addPair(similarity.getEventA(), similarity.getEventB(), similarity.getScore());
+        }
+        apply(changes);
+    }
+
+    // -- До limit самых похожих на eventId событий, для которых excluded ложно, по убыванию оценки.
+    public List<Recommendation> findTopSimilarExcluding(long eventId, LongPredicate excluded, int limit) {
+        Neighbours row = neighbours.get(eventId);
+        if (row == null) {
+            return List.of();
+        }
+        List<Recommendation> result = new ArrayList<>(Math.min(limit, row.eventIds.length));
+        for (int i = 0; i < row.eventIds.length && result.size() < limit; i++) {
+            if (!excluded.test(row.eventIds[i])) {
+                result.add(new Recommendation(row.eventIds[i], row.scores[i]));
+            }
+        }
+        return result;
+    }
+
+    // -- До limit событий, самых похожих на любое из sourceIds, кроме excluded. Оценка события — максимальная
+    // -- по всем источникам. Списки источников сливаются по убыванию оценки, поэтому первая встреча события
+    // -- дает его максимальную оценку, и обход заканчивается после limit подходящих событий.
+    // -- Слияние идет по куче номеров списков, выбранные события отмечаются в множестве на примитивном массиве.
+    public List<Recommendation> findTopSimilarToSetExcluding(Collection<Long> sourceIds, LongPredicate excluded,
+                                                             int limit) {
+        Neighbours[] rows = new Neighbours[sourceIds.size()];
+        int size = 0;
+        for (Long sourceId : sourceIds) {
+            Neighbours row = neighbours.get(sourceId);
+            if (row != null && row.eventIds.length > 0) {
+                rows[size++] = row;
+            }
+        }
+        int[] positions = new int[size];
+        // -- Номера списков, упорядоченные по оценке их текущего элемента; в корне — лучший.
+        int[] heads = new int[size];
+        for (int i = 0; i < size; i++) {
+            heads[i] = i;
+            siftUp(heads, i, rows, positions);
+        }
+
+        List<Recommendation> result = new ArrayList<>(limit);
+        long[] taken = newEventSet(limit);
+        while (result.size() < limit && size > 0) {
+            int head = heads[0];
+            Neighbours row = rows[head];
+            long eventId = row.eventIds[positions[head]];
+            if (!excluded.test(eventId) && addEvent(taken, eventId)) {
+                result.add(new Recommendation(eventId, row.scores[positions[head]]));
+            }
+            if (++positions[head] == row.eventIds.length) {
+                heads[0] = heads[--size];
+            }
+            siftDown(heads, size, rows, positions);
+        }
+        return result;
+    }
+
+    // -- Передает consumer до limit самых похожих на eventId соседей, для которых included истинно,
+    // -- по убыванию оценки, не создавая объектов на каждого соседа.
+    public void forEachNeighbourIncluding(long eventId, LongPredicate included, int limit,
+                                          NeighbourConsumer consumer) {
+        Neighbours row = neighbours.get(eventId);
+        if (row == null) {
+            return;
+        }
+        int found = 0;
+        for (int i = 0; i < row.eventIds.length && found < limit; i++) {
+            if (included.test(row.eventIds[i])) {
+                consumer.accept(row.eventIds[i], row.scores[i]);
+                found++;
+            }
+        }
+    }
+
+    // -- Получатель соседей события из forEachNeighbourIncluding.
+    @FunctionalInterface
+    public interface NeighbourConsumer {
+        void accept(long eventId, double score);
+    }
+
+    // -- Раскладывает направленные оценки по событиям-источникам сортировкой подсчетом, затем пересобирает
+    // -- список каждого источника один раз: его изменения сортируются и сливаются с текущим списком.
+    private void apply(DirectedScores changes) {
+        if (changes.size == 0) {
+            return;
+        }
+        long[] sources = Arrays.copyOf(changes.sources, changes.size);
+        Arrays.sort(sources);
+        int distinct = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (i == 0 || sources[i] != sources[i - 1]) {
+                sources[distinct++] = sources[i];
+            }
+        }
+        int[] groups = new int[changes.size];
+        int[] offsets = new int[distinct + 1];
+        for (int i = 0; i < changes.size; i++) {
+            groups[i] = Arrays.binarySearch(sources, 0, distinct, changes.sources[i]);
+            offsets[groups[i] + 1]++;
+        }
+        for (int group = 0; group < distinct; group++) {
+            offsets[group + 1] += offsets[group];
+        }
+        int[] order = new int[changes.size];
+        int[] next = Arrays.copyOf(offsets, distinct);
+        for (int i = 0; i < changes.size; i++) {
+            order[next[groups[i]]++] = i;
+        }
+
+        for (int group = 0; group < distinct; group++) {
+            int from = offsets[group];
+            int count = offsets[group + 1] - from;
+            long[] eventIds = new long[count];
+            double[] scores = new double[count];
+            for (int i = 0; i < count; i++) {
+                eventIds[i] = changes.neighbourIds[order[from + i]];
+                scores[i] = changes.scores[order[from + i]];
+            }
+            sort(eventIds, scores, new long[count], new double[count], 0, count);
+            neighbours.compute(sources[group], (id, row) -> Neighbours.merge(row, eventIds, scores, maxNeighbours));
+        }
+    }
+
+    // -- Порядок соседей: по убыванию оценки, при равных оценках — по возрастанию id события.
+    private static int compare(double scoreA, long eventA, double scoreB, long eventB) {
+        int byScore = Double.compare(scoreB, scoreA);
+        return byScore != 0 ? byScore : Long.compare(eventA, eventB);
+    }
+
+    // -- Сортировка слиянием параллельных массивов [from, to) в порядке compare, без упаковки элементов.
+    private static void sort(long[] eventIds, double[] scores, long[] eventIdsBuffer, double[] scoresBuffer,
+                             int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(eventIds, scores, eventIdsBuffer, scoresBuffer, from, middle);
+        sort(eventIds, scores, eventIdsBuffer, scoresBuffer, middle, to);
+        System.arraycopy(eventIds, from, eventIdsBuffer, from, to - from);
+        System.arraycopy(scores, from, scoresBuffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right == to || (left < middle && compare(scoresBuffer[left], eventIdsBuffer[left],
+                    scoresBuffer[right], eventIdsBuffer[right]) <= 0)) {
+                eventIds[i] = eventIdsBuffer[left];
+                scores[i] = scoresBuffer[left++];
+            } else {
+                eventIds[i] = eventIdsBuffer[right];
+                scores[i] = scoresBuffer[right++];
+            }
+        }
+    }
+
+    // -- Куча номеров списков в findTopSimilarToSetExcluding: в корне список с лучшим текущим элементом.
+    private static boolean better(int left, int right, Neighbours[] rows, int[] positions) {
+        Neighbours a = rows[left];
+        Neighbours b = rows[right];
+        return compare(a.scores[positions[left]], a.eventIds[positions[left]],
+                b.scores[positions[right]], b.eventIds[positions[right]]) < 0;
+    }
+
+    private static void siftUp(int[] heads, int position, Neighbours[] rows, int[] positions) {
+        int head = heads[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!better(head, heads[parent], rows, positions)) {
+                break;
+            }
+            heads[position] = heads[parent];
+            position = parent;
+        }
+        heads[position] = head;
+    }
+
+    private static void siftDown(int[] heads, int size, Neighbours[] rows, int[] positions) {
+        if (size == 0) {
+            return;
+        }
+        int position = 0;
+        int head = heads[0];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && better(heads[child + 1], heads[child], rows, positions)) {
+                child++;
+            }
+            if (!better(heads[child], head, rows, positions)) {
+                break;
+            }
+            heads[position] = heads[child];
+            position = child;
+        }
+        heads[position] = head;
+    }
+
+    // -- Множество до limit событий в открытой адресации с линейным пробированием, заполненное не больше
+    // -- чем наполовину.
+    private static long[] newEventSet(int limit) {
+        int capacity = 16;
+        while (capacity < limit * 2) {
+            capacity *= 2;
+        }
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    // -- Добавляет eventId в множество; false, если событие уже было в нем.
+    private static boolean addEvent(long[] table, long eventId) {
+        int mask = table.length - 1;
+        long hash = eventId * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == eventId) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = eventId;
+        return true;
+    }
+
+    // -- Соседи одного события: параллельные массивы в порядке compare. После создания не меняются.
+    private record Neighbours(long[] eventIds, double[] scores) {
+        // -- Список row, в котором оценки соседей из changedIds заменены новыми. Изменения упорядочены
+        // -- по compare, соседи в них не повторяются. Список длиннее maxNeighbours обрезается с конца: новый сосед
+        // -- попадает в полный список, только если он лучше последнего, а сосед из списка только сдвигается.
+        static Neighbours merge(Neighbours row, long[] changedIds, double[] changedScores, int maxNeighbours) {
+            int rowSize = row == null ? 0 : row.eventIds.length;
+            long[] changed = changedIds.clone();
+            Arrays.sort(changed);
+            int capacity = (int) Math.min((long) rowSize + changedIds.length, maxNeighbours);
+            long[] eventIds = new long[capacity];
+            double[] scores = new double[capacity];
+            int size = 0;
+            int fromRow = 0;
+            int fromChanged = 0;
+            while (size < capacity) {
+                while (fromRow < rowSize && Arrays.binarySearch(changed, row.eventIds[fromRow]) >= 0) {
+                    fromRow++;
+                }
+                boolean rowLeft = fromRow < rowSize;
+                boolean changedLeft = fromChanged < changedIds.length;
+                if (!rowLeft && !changedLeft) {
+                    break;
+                }
+                if (rowLeft && (!changedLeft || compare(row.scores[fromRow], row.eventIds[fromRow],
+                        changedScores[fromChanged], changedIds[fromChanged]) < 0)) {
+                    eventIds[size] = row.eventIds[fromRow];
+                    scores[size++] = row.scores[fromRow++];
+                } else {
+                    eventIds[size] = changedIds[fromChanged];
+                    scores[size++] = changedScores[fromChanged++];
+                }
+            }
+            if (size < capacity) {
+                return new Neighbours(Arrays.copyOf(eventIds, size), Arrays.copyOf(scores, size));
+            }
+            return new Neighbours(eventIds, scores);
+        }
+    }
+
+    // -- Направленные оценки пачки или загрузки: по записи на каждое направление пары в параллельных массивах,
+    // -- которые растут по мере добавления.
+    private static final class DirectedScores {
+        long[] sources = new long[INITIAL_CAPACITY];
+        long[] neighbourIds = new long[INITIAL_CAPACITY];
+        double[] scores = new double[INITIAL_CAPACITY];
+        int size;
+
+        void addPair(long eventA, long eventB, double score) {
+            if (size + 2 > sources.length) {
+                int capacity = sources.length * 2;
+                sources = Arrays.copyOf(sources, capacity);
+                neighbourIds = Arrays.copyOf(neighbourIds, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            add(eventA, eventB, score);
+            add(eventB, eventA, score);
+        }
+
+        private void add(long source, long neighbourId, double score) {
+            sources[size] = source;
+            neighbourIds[size] = neighbourId;
+            scores[size++] = score;
+        }
+    }
+}
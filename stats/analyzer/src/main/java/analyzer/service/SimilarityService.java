@@ -2,6 +2,8 @@ package analyzer.service;
 
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 
+import java.util.List;
+
 public interface SimilarityService {
-    void handleSimilarity(EventSimilarityAvro avro);
+    void handleSimilarities(List<EventSimilarityAvro> avros);
 }
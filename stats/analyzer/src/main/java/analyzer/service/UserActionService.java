@@ -2,6 +2,8 @@ package analyzer.service;
 
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
+import java.util.List;
+
 public interface UserActionService {
-    void handleUserAction(UserActionAvro avro);
+    void handleUserActions(List<UserActionAvro> avros);
 }
@@ -0,0 +1,163 @@
+package analyzer.service;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Неизменяемые значения по пользователям в памяти, не больше maxUsers пользователей. Каждое обращение
+ * отмечает время пользователя; когда пользователей становится больше maxUsers, вытесняются те, к кому дольше
+ * всего не обращались, с запасом в 1/16 предела. Так обход карты и сортировка времен обращений нужны
+ * один раз на maxUsers / 16 новых пользователей, а чтение стоит одной записи volatile-поля.
+ * Пока данные пользователя читаются из базы, в карте лежит заготовка: изменения, пришедшие во время чтения,
+ * копятся в ней и сливаются с прочитанным. Заготовки не отдаются читателям и не вытесняются.
+ */
+final class UserStore<V> {
+    private final int maxUsers;
+    private final int evictTo;
+    private final EvictionListener<V> evictionListener;
+    // -- Структура: {userId -> значение пользователя}
+    private final Map<Long, Slot<V>> users = new ConcurrentHashMap<>();
+    // -- Вытесняет один поток; остальные в это время не ждут и не обходят карту.
+    private final ReentrantLock eviction = new ReentrantLock();
+
+    UserStore(int maxUsers, EvictionListener<V> evictionListener) {
+        this.maxUsers = Math.max(1, maxUsers);
+        this.evictTo = this.maxUsers - this.maxUsers / 16;
+        this.evictionListener = evictionListener;
+    }
+
+    UserStore(int maxUsers) {
+        this(maxUsers, (userId, value) -> {
+        });
+    }
+
+    // -- Значение пользователя или null, если пользователь не загружен.
+    V get(long userId) {
+        Slot<V> slot = users.get(userId);
+        if (slot == null || !slot.complete) {
+            return null;
+        }
+        slot.lastAccess = System.nanoTime();
+        return slot.value;
+    }
+
+    // -- Значение пользователя; незагруженный пользователь читается loader вне блокировок карты. Перед чтением
+    // -- ставится заготовка placeholder, а прочитанное сливается с ней через merge(прочитанное, заготовка).
+    // -- Если чтение завершилось ошибкой, заготовка убирается.
+    V getOrLoad(long userId, V placeholder, LongFunction<V> loader, BinaryOperator<V> merge) {
+        V value = get(userId);
+        if (value != null) {
+            return value;
+        }
+        users.putIfAbsent(userId, new Slot<>(placeholder, false));
+        V loaded;
+        try {
+            loaded = loader.apply(userId);
+        } catch (RuntimeException e) {
+            users.computeIfPresent(userId, (id, slot) -> slot.complete ? slot : null);
+            throw e;
+        }
+        Slot<V> slot = users.merge(userId, new Slot<>(loaded, true),
+                (current, fresh) -> new Slot<>(merge.apply(fresh.value, current.value), true));
+        evictIfFull(userId);
+        return slot.value;
+    }
+
+    // -- Применяет update к значению пользователя, если он загружен или загружается; остальные пользователи
+    // -- не добавляются.
+    void update(long userId, UnaryOperator<V> update) {
+        users.computeIfPresent(userId, (id, slot) -> {
+            V value = update.apply(slot.value);
+            return value == slot.value ? slot : new Slot<>(value, slot.complete);
+        });
+    }
+
+    // -- Заменяет значение пользователя результатом remapping(текущее значение или null); null удаляет
+    // -- пользователя. remapping выполняется под блокировкой ключа.
+    V compute(long userId, UnaryOperator<V> remapping) {
+        Slot<V> slot = users.compute(userId, (id, current) -> {
+            V value = remapping.apply(current != null && current.complete ? current.value : null);
+            return value != null ? new Slot<>(value, true) : null;
+        });
+        if (slot == null) {
+            return null;
+        }
+        evictIfFull(userId);
+        return slot.value;
+    }
+
+    // -- Удаляет пользователя; возвращает его значение или null.
+    V remove(long userId) {
+        Slot<V> removed = users.remove(userId);
+        return removed != null && removed.complete ? removed.value : null;
+    }
+
+    int size() {
+        return users.size();
+    }
+
+    // -- Вытесняет давно не запрашивавшихся загруженных пользователей до evictTo, кроме keptUserId.
+    private void evictIfFull(long keptUserId) {
+        if (users.size() <= maxUsers || !eviction.tryLock()) {
+            return;
+        }
+        try {
+            int excess = users.size() - evictTo;
+            if (excess <= 0) {
+                return;
+            }
+            long[] accessTimes = new long[users.size()];
+            int count = 0;
+            for (Map.Entry<Long, Slot<V>> entry : users.entrySet()) {
+                Slot<V> slot = entry.getValue();
+                if (count < accessTimes.length && slot.complete && entry.getKey() != keptUserId) {
+                    accessTimes[count++] = slot.lastAccess;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            Arrays.sort(accessTimes, 0, count);
+            long threshold = accessTimes[Math.min(excess, count) - 1];
+
+            Iterator<Map.Entry<Long, Slot<V>>> entries = users.entrySet().iterator();
+            int evicted = 0;
+            while (evicted < excess && entries.hasNext()) {
+                Map.Entry<Long, Slot<V>> entry = entries.next();
+                Slot<V> slot = entry.getValue();
+                if (slot.complete && entry.getKey() != keptUserId && slot.lastAccess <= threshold
+                        && users.remove(entry.getKey(), slot)) {
+                    evictionListener.evicted(entry.getKey(), slot.value);
+                    evicted++;
+                }
+            }
+        } finally {
+            eviction.unlock();
+        }
+    }
+
+    // -- Получатель значений вытесненных пользователей.
+    @FunctionalInterface
+    interface EvictionListener<V> {
+        void evicted(long userId, V value);
+    }
+
+    // -- Значение пользователя и время последнего обращения к нему (System.nanoTime).
+    // -- complete ложно у заготовки, пока данные пользователя читаются из базы.
+    private static final class Slot<V> {
+        private final V value;
+        private final boolean complete;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Slot(V value, boolean complete) {
+            this.value = value;
+            this.complete = complete;
+        }
+    }
+}
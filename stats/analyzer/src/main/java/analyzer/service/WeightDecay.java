@@ -0,0 +1,49 @@
+package analyzer.service;
+
+import analyzer.config.DecayProperties;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Затухание весов действий с отсчетом от фиксированной эпохи (forward decay), как в агрегаторе.
+ * В user_actions.action_weight хранится вес, умноженный на 2^((t - epoch) / halfLife), где t — время действия,
+ * поэтому сохраненные веса не нужно периодически уменьшать. При чтении суммы и оценки делятся на тот же
+ * множитель для текущего момента и становятся затухшими к нему весами.
+ * Это копия {@code aggregator.service.WeightDecay}: модули не делят код, а сумма весов в базе и оценки
+ * схожести агрегатора сходятся, только пока формула множителя, предел показателя и проверка halfLife
+ * одинаковы. WeightDecayTest здесь и в агрегаторе проверяет одни и те же значения.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class WeightDecay {
+    // -- Предельный показатель степени двойки, как в агрегаторе: запас до переполнения double.
+    private static final double MAX_EXPONENT = 960;
+
+    DecayProperties properties;
+
+    public WeightDecay(DecayProperties properties) {
+        if (properties.isEnabled()
+                && (properties.getHalfLife() == null || properties.getHalfLife().toMillis() <= 0)) {
+            throw new IllegalArgumentException("analyzer.decay.half-life должен быть положительным");
+        }
+        this.properties = properties;
+    }
+
+    // -- Множитель для сохранения веса действия, совершенного в момент timestamp; без затухания — 1.
+    public double scale(Instant timestamp) {
+        if (!properties.isEnabled()) {
+            return 1.0;
+        }
+        double exponent = (double) (timestamp.toEpochMilli() - properties.getEpoch().toEpochMilli())
+                / properties.getHalfLife().toMillis();
+        return Math.pow(2.0, Math.max(-MAX_EXPONENT, Math.min(MAX_EXPONENT, exponent)));
+    }
+
+    // -- Множитель, переводящий сохраненные веса в затухшие к моменту now.
+    public double descale(Instant now) {
+        return 1.0 / scale(now);
+    }
+}
@@ -0,0 +1,251 @@
+package analyzer.service.impl;
+
+import analyzer.service.SimilarityIndex;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Итоговый скоринг кандидатов персональных рекомендаций на параллельных примитивных массивах.
+ * Соседи кандидата i занимают позиции [offsets[i], offsets[i + 1]) массивов neighbourIds, similarities и ratings.
+ * Лучшие limit кандидатов отбираются ограниченной кучей, RecommendedEventProto создаются только для них.
+ * Экземпляр переиспользуется запросами одного потока: массивы растут по мере надобности и между запросами
+ * не создаются заново. Не потокобезопасен.
+ */
+final class CandidateScorer implements SimilarityIndex.NeighbourConsumer {
+    private static final int INITIAL_CAPACITY = 64;
+    // -- Массивы больше этого размера после запроса не удерживаются: редкий большой запрос не занимает память потока.
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+    // -- Свободная ячейка таблицы оценок; id событий положительные.
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] candidateIds;
+    private int[] offsets;
+    private float[] scores;
+    private int[] heap;
+    private int candidates;
+
+    private long[] neighbourIds;
+    private double[] similarities;
+    // -- Вес действия пользователя с соседом; NaN — пользователь соседа не оценивал.
+    private double[] ratings;
+    // -- Ячейка соседа в таблице оценок, запомненная neighbourIds.
+    private int[] ratedSlots;
+    private int neighbours;
+
+    // -- Оценки пользователя в открытой адресации с линейным пробированием: поиск по long без упаковки в Long.
+    // -- NaN — пользователь соседа не оценивал. Используются первые ratedMask + 1 ячеек.
+    private long[] ratedIds;
+    private double[] ratedWeights;
+    private int ratedMask;
+
+    CandidateScorer() {
+        allocateCandidates(INITIAL_CAPACITY);
+        allocateNeighbours(INITIAL_CAPACITY);
+        allocateRatings(INITIAL_CAPACITY);
+    }
+
+    // -- Подготовка к новому запросу.
+    void reset() {
+        if (candidateIds.length > MAX_RETAINED_CAPACITY) {
+            allocateCandidates(INITIAL_CAPACITY);
+        }
+        if (neighbourIds.length > MAX_RETAINED_CAPACITY) {
+            allocateNeighbours(INITIAL_CAPACITY);
+        }
+        // -- Таблица оценок заполнена не больше чем наполовину, поэтому удерживается вдвое большей.
+        if (ratedIds.length > 2 * MAX_RETAINED_CAPACITY) {
+            allocateRatings(INITIAL_CAPACITY);
+        }
+        candidates = 0;
+        neighbours = 0;
+    }
+
+    // -- Следующие переданные соседи относятся к этому кандидату.
+    void addCandidate(long candidateId) {
+        if (candidates + 1 == candidateIds.length) {
+            int capacity = candidateIds.length * 2;
+            candidateIds = Arrays.copyOf(candidateIds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            scores = new float[capacity];
+            heap = new int[capacity];
+        }
+        candidateIds[candidates++] = candidateId;
+        offsets[candidates] = neighbours;
+    }
+
+    // -- Сосед последнего добавленного кандидата.
+    @Override
+    public void accept(long eventId, double similarity) {
+        if (neighbours == neighbourIds.length) {
+            int capacity = neighbourIds.length * 2;
+            neighbourIds = Arrays.copyOf(neighbourIds, capacity);
+            similarities = Arrays.copyOf(similarities, capacity);
+            ratings = new double[capacity];
+            ratedSlots = new int[capacity];
+        }
+        neighbourIds[neighbours] = eventId;
+        similarities[neighbours++] = similarity;
+        offsets[candidates] = neighbours;
+    }
+
+    // -- Различные соседи всех кандидатов, для запроса оценок пользователя. Соседи раскладываются по таблице
+    // -- оценок без оценки; rate заполняет ее, applyRatings переносит оценки в ratings.
+    long[] neighbourIds() {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < neighbours * 2) {
+            capacity *= 2;
+        }
+        if (capacity > ratedIds.length) {
+            allocateRatings(capacity);
+        } else {
+            Arrays.fill(ratedIds, 0, capacity, EMPTY);
+        }
+        ratedMask = capacity - 1;
+        long[] distinct = new long[neighbours];
+        int count = 0;
+        for (int i = 0; i < neighbours; i++) {
+            long eventId = neighbourIds[i];
+            int slot = find(eventId);
+            if (ratedIds[slot] == EMPTY) {
+                ratedIds[slot] = eventId;
+                ratedWeights[slot] = Double.NaN;
+                distinct[count++] = eventId;
+            }
+            ratedSlots[i] = slot;
+        }
+        return count == distinct.length ? distinct : Arrays.copyOf(distinct, count);
+    }
+
+    // -- Оценка пользователя для соседа из neighbourIds; оценки других событий пропускаются.
+    void rate(long eventId, double weight) {
+        int slot = find(eventId);
+        if (ratedIds[slot] == eventId) {
+            ratedWeights[slot] = weight;
+        }
+    }
+
+    // -- Переносит оценки в соседей кандидатов; factor переводит сохраненные веса в затухшие.
+    void applyRatings(double factor) {
+        for (int i = 0; i < neighbours; i++) {
+            ratings[i] = ratedWeights[ratedSlots[i]] * factor;
+        }
+    }
+
+    // -- До limit кандидатов с положительной оценкой по убыванию оценки, при равных — по возрастанию id.
+    // -- Оценка кандидата — среднее оценок пользователя для его соседей, взвешенное по схожести.
+    List<RecommendedEventProto> top(int limit) {
+        int size = 0;
+        for (int candidate = 0; candidate < candidates; candidate++) {
+            float score = score(candidate);
+            if (score <= 0.0f) {
+                continue;
+            }
+            scores[candidate] = score;
+            if (size < limit) {
+                heap[size] = candidate;
+                siftUp(size++);
+            } else if (worse(heap[0], candidate)) {
+                heap[0] = candidate;
+                siftDown(0, size);
+            }
+        }
+
+        // -- В корне кучи худший из оставшихся, поэтому результат заполняется с конца.
+        RecommendedEventProto[] result = new RecommendedEventProto[size];
+        while (size > 0) {
+            int candidate = heap[0];
+            result[size - 1] = RecommendedEventProto.newBuilder()
+                    .setEventId(candidateIds[candidate])
+                    .setScore(scores[candidate])
+                    .build();
+            heap[0] = heap[--size];
+            siftDown(0, size);
+        }
+        return Arrays.asList(result);
+    }
+
+    private float score(int candidate) {
+        double weightedSum = 0.0;
+        double similaritySum = 0.0;
+        for (int i = offsets[candidate]; i < offsets[candidate + 1]; i++) {
+            double rating = ratings[i];
+            if (Double.isNaN(rating)) {
+                continue;
+            }
+            weightedSum += rating * similarities[i];
+            similaritySum += similarities[i];
+        }
+        if (similaritySum == 0.0) {
+            return 0.0f;
+        }
+        return (float) (weightedSum / similaritySum);
+    }
+
+    // -- Куча минимальная: в корне кандидат, который первым уступит место лучшему.
+    private void siftUp(int position) {
+        int candidate = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!worse(candidate, heap[parent])) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = candidate;
+    }
+
+    private void siftDown(int position, int size) {
+        int candidate = heap[position];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && worse(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!worse(heap[child], candidate)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = candidate;
+    }
+
+    // -- Ячейка eventId в таблице оценок или свободная ячейка, куда его можно положить.
+    private int find(long eventId) {
+        long hash = eventId * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & ratedMask;
+        while (ratedIds[slot] != EMPTY && ratedIds[slot] != eventId) {
+            slot = (slot + 1) & ratedMask;
+        }
+        return slot;
+    }
+
+    private boolean worse(int left, int right) {
+        int byScore = Float.compare(scores[left], scores[right]);
+        return byScore != 0 ? byScore < 0 : candidateIds[left] > candidateIds[right];
+    }
+
+    private void allocateCandidates(int capacity) {
+        candidateIds = new long[capacity];
+        offsets = new int[capacity];
+        scores = new float[capacity];
+        heap = new int[capacity];
+    }
+
+    private void allocateRatings(int capacity) {
+        ratedIds = new long[capacity];
+        ratedWeights = new double[capacity];
+        Arrays.fill(ratedIds, EMPTY);
+    }
+
+    private void allocateNeighbours(int capacity) {
+        neighbourIds = new long[capacity];
+        similarities = new double[capacity];
+        ratings = new double[capacity];
+        ratedSlots = new int[capacity];
+    }
+}
@@ -0,0 +1,48 @@
+package analyzer.service.impl;
+
+import analyzer.config.RecommendationCacheProperties;
+import analyzer.service.RecommendationCache;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.grpc.ewm.dashboard.message.UserPredictionsRequestProto;
+
+import java.util.List;
+
+// -- Заранее пересчитывает рекомендации пользователей с новыми действиями, чтобы их запрос обслуживался из кэша.
+@Component
+@EnableScheduling
+@ConditionalOnProperty(prefix = "analyzer.recommendation-cache.prewarm", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RecommendationCacheWarmer {
+    RecommendationCache recommendationCache;
+    analyzer.service.RecommendationsService recommendationsService;
+    RecommendationCacheProperties properties;
+
+    @Scheduled(fixedDelayString = "${analyzer.recommendation-cache.prewarm.interval:30s}")
+    public void prewarm() {
+        List<Long> userIds = recommendationCache.drainActiveUsers();
+        if (userIds.isEmpty()) {
+            return;
+        }
+        int maxResults = properties.getPrewarm().getMaxResults();
+        for (Long userId : userIds) {
+            try {
+                recommendationsService.getRecommendationsForUser(UserPredictionsRequestProto.newBuilder()
+                        .setUserId(userId)
+                        .setMaxResult(maxResults)
+                        .build());
+            } catch (RuntimeException e) {
+                log.warn("Не удалось прогреть рекомендации для userId={}: {}", userId, e.getMessage());
+            }
+        }
+        log.info("Прогреты рекомендации для {} пользователей", userIds.size());
+    }
+}
@@ -1,23 +1,27 @@
 package analyzer.service.impl;
 
+import analyzer.config.RecommendationsProperties;
 import analyzer.model.Recommendation;
-import analyzer.repository.EventSimilarityRepository;
+import analyzer.repository.RecommendationQueryRepository;
 import analyzer.repository.UserActionRepository;
+import analyzer.service.EventInteractionTotals;
+import analyzer.service.RecentInteractions;
+import analyzer.service.RecommendationCache;
+import analyzer.service.SeenEvents;
+import analyzer.service.SimilarityIndex;
+import analyzer.service.WeightDecay;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.grpc.ewm.dashboard.message.InteractionsCountRequestProto;
 import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
@@ -31,10 +35,22 @@ import ru.practicum.grpc.ewm.dashboard.message.UserPredictionsRequestProto;
 @Transactional(readOnly = true)
 public class RecommendationsService implements analyzer.service.RecommendationsService {
 
-    UserActionRepository userActionRepository;
-    EventSimilarityRepository eventSimilarityRepository;
+    // -- Массивы скоринга переиспользуются запросами одного потока.
+    private static final ThreadLocal<CandidateScorer> SCORERS = ThreadLocal.withInitial(CandidateScorer::new);
 
+    UserActionRepository userActionRepository;
+    WeightDecay weightDecay;
+    SimilarityIndex similarityIndex;
+    RecentInteractions recentInteractions;
+    SeenEvents seenEvents;
+    EventInteractionTotals eventInteractionTotals;
+    RecommendationCache recommendationCache;
+    RecommendationsProperties properties;
+
+    // -- Без общей транзакции: ошибка запроса к базе в режиме DATABASE прервала бы ее, и расчет в памяти
+    // -- не смог бы прочитать оценки пользователя. Каждое чтение из базы идет в своей транзакции.
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request) {
         long userId = request.getUserId();
         int limit = (int) request.getMaxResult();
@@ -44,50 +60,79 @@ public class RecommendationsService implements analyzer.service.RecommendationsS
 
         log.info("Запрос персонализированных рекомендаций для userId={}, limit={}", userId, limit);
 
-        Pageable recentInteractionsPageable = PageRequest.of(0, limit);
-        List<Long> recentEventIds = userActionRepository.findRecentEventIdsByUserId(userId, recentInteractionsPageable);
+        return recommendationCache.get(userId, limit, () -> calculateRecommendations(userId, limit));
+    }
+
+    private RecommendationCache.Result calculateRecommendations(long userId, int limit) {
+        if (properties.getSource() == RecommendationsProperties.Source.DATABASE) {
+            try {
+                return queryRecommendations(userId, limit);
+            } catch (DataAccessException e) {
+                log.warn("Не удалось рассчитать рекомендации для userId={} запросом к базе, расчет в памяти: {}",
+                        userId, e.getMostSpecificCause().getMessage());
+            }
+        }
+        return calculateInMemory(userId, limit);
+    }
+
+    // -- Весь расчет одним запросом к базе. Оценки descale переводит в затухшие так же, как веса в расчете в памяти:
+    // -- средневзвешенная оценка линейна по весам.
+    private RecommendationCache.Result queryRecommendations(long userId, int limit) {
+        RecommendationQueryRepository.RecommendationRows rows =
+                userActionRepository.findRecommendations(userId, limit);
+        double factor = weightDecay.descale(Instant.now());
+        List<RecommendedEventProto> recommendations = rows.recommendations().stream()
+                .map(rec -> RecommendedEventProto.newBuilder()
+                        .setEventId(rec.getEventId())
+                        .setScore((float) (rec.getScore() * factor))
+                        .build())
+                .collect(Collectors.toList());
+
+        log.info("Сформировано {} рекомендаций для userId={} запросом к базе", recommendations.size(), userId);
+        List<Long> dependencies = new ArrayList<>(rows.recentEventIds());
+        dependencies.addAll(rows.candidateEventIds());
+        return new RecommendationCache.Result(recommendations, dependencies);
+    }
+
+    // -- Результат зависит от оценок схожести последних событий пользователя и найденных кандидатов.
+    private RecommendationCache.Result calculateInMemory(long userId, int limit) {
+        List<Long> recentEventIds = recentInteractions.findRecentEventIds(userId, limit);
 
         if (recentEventIds.isEmpty()) {
             log.warn("Для userId={} не найдено недавних действий.", userId);
-            return List.of();
+            return RecommendationCache.Result.empty();
         }
 
         // -- Найти похожие новые события, исключая все, что пользователь уже видел.
-        Set<Long> allUserEvents = userActionRepository.findEventIdsByUserId(userId);
+        LongPredicate seen = seenEvents.seenBy(userId);
 
-        Pageable candidatesPageable = PageRequest.of(0, limit);
-        List<Recommendation> candidateRecs = eventSimilarityRepository.findTopSimilarToSetExcluding(
-                recentEventIds,
-                allUserEvents,
-                candidatesPageable
-        );
-        Set<Long> candidateEventIds = candidateRecs.stream().map(Recommendation::getEventId).collect(Collectors.toSet());
+        List<Recommendation> candidateRecs = similarityIndex.findTopSimilarToSetExcluding(recentEventIds, seen, limit);
 
-        if (candidateEventIds.isEmpty()) {
+        if (candidateRecs.isEmpty()) {
             log.warn("Не найдено новых кандидатов для рекомендаций для userId={}", userId);
-            return List.of();
+            return new RecommendationCache.Result(List.of(), recentEventIds);
         }
 
-        // -- найти ближайших просмотренных соседей для всех кандидатов.
-        Map<Long, List<Recommendation>> neighboursMap = eventSimilarityRepository.findNeighbourEventsFrom(
-                candidateEventIds,
-                allUserEvents,
-                limit
-        );
+        // -- Ближайшие просмотренные соседи всех кандидатов — в параллельные массивы скоринга.
+        CandidateScorer scorer = SCORERS.get();
+        scorer.reset();
+        List<Long> dependencies = new ArrayList<>(recentEventIds.size() + candidateRecs.size());
+        dependencies.addAll(recentEventIds);
+        for (Recommendation candidate : candidateRecs) {
+            scorer.addCandidate(candidate.getEventId());
+            similarityIndex.forEachNeighbourIncluding(candidate.getEventId(), seen, limit, scorer);
+            dependencies.add(candidate.getEventId());
+        }
 
         // -- Получить оценки пользователя для всех найденных соседей
-        Set<Long> allNeighbourIds = neighboursMap.values().stream()
-                .flatMap(List::stream)
-                .map(Recommendation::getEventId)
-                .collect(Collectors.toSet());
-        Map<Long, Double> userRatings = userActionRepository.findWeightsByUserIdAndEventIds(userId, allNeighbourIds);
+        userActionRepository.forEachActionWeight(userId, scorer.neighbourIds(), scorer::rate);
+        scorer.applyRatings(weightDecay.descale(Instant.now()));
 
         // -- Вычисляем финальный score
-        List<RecommendedEventProto> finalRecommendations =
-                buildFinalRecommendations(candidateEventIds, neighboursMap, userRatings, limit);
+        List<RecommendedEventProto> finalRecommendations = scorer.top(limit);
 
         log.info("Сформировано {} рекомендаций для userId={}", finalRecommendations.size(), userId);
-        return finalRecommendations;
+        return new RecommendationCache.Result(finalRecommendations, dependencies);
     }
 
     @Override
@@ -101,15 +146,9 @@ public class RecommendationsService implements analyzer.service.RecommendationsS
 
         log.info("Запрос похожих событий для eventId={}, исключая для userId={}, limit={}", eventId, userId, limit);
 
-        Set<Long> seenEventIds = new HashSet<>(userActionRepository.findEventIdsByUserId(userId));
-        seenEventIds.add(eventId);
-
-        Pageable pageable = PageRequest.of(0, limit, Sort.by(Sort.Direction.DESC, "score"));
-        List<Recommendation> similarEvents = eventSimilarityRepository.findTopSimilarExcluding(
-                eventId,
-                seenEventIds,
-                pageable
-        );
+        LongPredicate seen = seenEvents.seenBy(userId);
+        List<Recommendation> similarEvents = similarityIndex.findTopSimilarExcluding(eventId,
+                id -> id == eventId || seen.test(id), limit);
 
         log.info("Найдено {} похожих событий для eventId={}", similarEvents.size(), eventId);
 
@@ -130,65 +169,18 @@ public class RecommendationsService implements analyzer.service.RecommendationsS
 
         log.info("Запрос суммы весов взаимодействий для {} событий", eventIds.size());
 
-        Map<Long, Double> eventWeights = userActionRepository.getAggregatedWeightsForEvents(eventIds);
-
-        return eventIds.stream()
-                .map(eventId -> RecommendedEventProto.newBuilder()
-                        .setEventId(eventId)
-                        .setScore(eventWeights.getOrDefault(eventId, 0.0).floatValue())
-                        .build())
-                .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed())
-                .collect(Collectors.toList());
-    }
-
-    private List<RecommendedEventProto> buildFinalRecommendations(Set<Long> candidateEventIds,
-                                                                  Map<Long, List<Recommendation>> neighboursMap,
-                                                                  Map<Long, Double> userRatings,
-                                                                  int limit) {
-        List<RecommendedEventProto> result = new ArrayList<>();
-
-        for (Long candidateId : candidateEventIds) {
-            float score = calculateCandidateScore(candidateId, neighboursMap, userRatings);
-            if (score <= 0.0f) {
-                continue;
-            }
+        double[] totals = eventInteractionTotals.get(eventIds);
+        // -- Сохраненные веса переводятся в затухшие к текущему моменту до приведения к float:
+        // -- с затуханием они могут не помещаться во float.
+        double factor = weightDecay.descale(Instant.now());
+        List<RecommendedEventProto> result = new ArrayList<>(totals.length);
+        for (int i = 0; i < totals.length; i++) {
             result.add(RecommendedEventProto.newBuilder()
-                    .setEventId(candidateId)
-                    .setScore(score)
+                    .setEventId(eventIds.get(i))
+                    .setScore((float) (totals[i] * factor))
                     .build());
         }
-
-        return result.stream()
-                .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed())
-                .limit(limit)
-                .collect(Collectors.toList());
-    }
-
-    private float calculateCandidateScore(Long candidateId,
-                                          Map<Long, List<Recommendation>> neighboursMap,
-                                          Map<Long, Double> userRatings) {
-        List<Recommendation> neighbours = neighboursMap.get(candidateId);
-        if (neighbours == null || neighbours.isEmpty()) {
-            return 0.0f;
-        }
-
-        double weightedSum = 0.0;
-        double similaritySum = 0.0;
-
-        for (Recommendation neighbour : neighbours) {
-            Double rating = userRatings.get(neighbour.getEventId());
-            if (rating == null) {
-                continue;
-            }
-            double similarity = neighbour.getScore();
-            weightedSum += rating * similarity;
-            similaritySum += similarity;
-        }
-
-        if (similaritySum == 0.0) {
-            return 0.0f;
-        }
-
-        return (float) (weightedSum / similaritySum);
+        result.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return result;
     }
 }
\ No newline at end of file
@@ -3,14 +3,23 @@ package analyzer.service.impl;
 import analyzer.mapper.SimilarityMapper;
 import analyzer.model.EventSimilarity;
 import analyzer.repository.EventSimilarityRepository;
+import analyzer.service.RecommendationCache;
+import analyzer.service.SimilarityIndex;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -19,19 +28,42 @@ import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 public class SimilarityService implements analyzer.service.SimilarityService {
     EventSimilarityRepository similarityRepository;
     SimilarityMapper similarityMapper;
+    SimilarityIndex similarityIndex;
+    RecommendationCache recommendationCache;
 
+    // -- Пачка из Kafka записывается одним пакетным upsert. Если пара встречается в пачке несколько раз,
+    // -- сохраняется последняя оценка; пара хранится как (меньший id, больший id).
     @Override
     @Transactional
-    public void handleSimilarity(EventSimilarityAvro avro) {
-        log.info("Создание схожести события: {}", avro);
+    public void handleSimilarities(List<EventSimilarityAvro> avros) {
+        log.info("Сохранение пачки из {} оценок схожести", avros.size());
 
-        if (similarityRepository.existsByEventAAndEventB(avro.getEventA(), avro.getEventB())) {
-            log.debug("Запись с eventA={} и eventB={} уже есть, пропускаем",
-                    avro.getEventA(), avro.getEventB());
-            return;
+        Map<List<Long>, EventSimilarity> latest = new LinkedHashMap<>();
+        for (EventSimilarityAvro avro : avros) {
+            EventSimilarity similarity = similarityMapper.AvroSimilarityToEntity(avro);
+            if (similarity.getEventA() > similarity.getEventB()) {
+                similarity.setEventA(avro.getEventB());
+                similarity.setEventB(avro.getEventA());
+            }
+            latest.put(List.of(similarity.getEventA(), similarity.getEventB()), similarity);
         }
 
-        EventSimilarity similarity = similarityMapper.AvroSimilarityToEntity(avro);
-        similarityRepository.save(similarity);
+        similarityRepository.upsertAll(latest.values());
+        applyAfterCommit(latest.values());
+        log.debug("Сохранено {} пар событий из {} оценок", latest.size(), avros.size());
+    }
+
+    // -- Индекс в памяти меняется только после фиксации: при откате в нем не должно остаться оценок,
+    // -- которых нет в таблице, а сброшенные рекомендации пересчитываются уже по новым оценкам.
+    private void applyAfterCommit(Collection<EventSimilarity> similarities) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                similarityIndex.updateAll(similarities);
+                for (EventSimilarity similarity : similarities) {
+                    recommendationCache.invalidateSimilarity(similarity.getEventA(), similarity.getEventB());
+                }
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -5,13 +5,24 @@ import analyzer.mapper.UserActionMapper;
 import analyzer.model.ActionType;
 import analyzer.model.UserAction;
 import analyzer.repository.UserActionRepository;
+import analyzer.service.EventInteractionTotals;
+import analyzer.service.RecentInteractions;
+import analyzer.service.RecommendationCache;
+import analyzer.service.SeenEvents;
+import analyzer.service.WeightDecay;
 import jakarta.transaction.Transactional;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.practicum.ewm.stats.avro.ActionTypeAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
@@ -23,29 +34,58 @@ public class UserActionService implements analyzer.service.UserActionService {
     WeightProperties weightProperties;
     UserActionRepository userActionRepository;
     UserActionMapper userActionMapper;
+    WeightDecay weightDecay;
+    EventInteractionTotals eventInteractionTotals;
+    RecentInteractions recentInteractions;
+    SeenEvents seenEvents;
+    RecommendationCache recommendationCache;
 
+    // -- Пачка из Kafka сворачивается до действия с наибольшим весом на пару (пользователь, событие)
+    // -- и записывается одним запросом; при равных весах остается более раннее действие, как и в базе.
     @Transactional
     @Override
-    public void handleUserAction(UserActionAvro avro) {
-        log.info("Сохраняем действие: {} пользователя: {} для события {}", avro, avro.getUserId(), avro.getEventId());
-        Optional<UserAction> userActionOpt = userActionRepository.findByUserIdAndEventId(avro.getUserId(), avro.getEventId());
-        ActionType newType = avroTypeToEntity(avro.getActionType());
-        double newWeight = getWeightForAction(newType);
+    public void handleUserActions(List<UserActionAvro> avros) {
+        log.info("Сохраняем пачку из {} действий пользователей", avros.size());
+        Map<List<Long>, UserAction> strongest = new HashMap<>();
+        for (UserActionAvro avro : avros) {
+            ActionType newType = avroTypeToEntity(avro.getActionType());
+            // -- С затуханием вес хранится в масштабе эпохи, поэтому новое действие сравнивается со старым
+            // -- уже с учетом того, насколько оно свежее.
+            double newWeight = getWeightForAction(newType) * weightDecay.scale(avro.getTimestamp());
 
-        if (userActionOpt.isPresent()) {
-            UserAction userAction = userActionOpt.get();
-
-            if (Double.compare(newWeight, userAction.getActionWeight()) > 0) {
-                userAction.setActionType(newType);
-                userAction.setTimestamp(avro.getTimestamp());
-                userAction.setActionWeight(newWeight);
-                userActionRepository.save(userAction);
+            List<Long> key = List.of(avro.getUserId(), avro.getEventId());
+            UserAction current = strongest.get(key);
+            if (current != null && Double.compare(newWeight, current.getActionWeight()) <= 0) {
+                continue;
             }
-            return;
+            UserAction userAction = userActionMapper.AvroToEntity(avro, newWeight);
+            userAction.setActionType(newType);
+            strongest.put(key, userAction);
+        }
+        applyAfterCommit(avros, userActionRepository.upsertMaxWeights(strongest.values()));
+        log.debug("Записано {} пар (пользователь, событие) из {} действий", strongest.size(), avros.size());
+    }
+
+    // -- Итоги событий, последние и просмотренные события пользователей меняются только после фиксации:
+    // -- при откате в памяти не должно остаться действий, которых нет в базе, а загрузка пользователя, начатая
+    // -- до фиксации, сливается с ними. Рекомендации считаются и по весам из базы, поэтому кэш сбрасывается
+    // -- последним, когда новые веса уже видны; при откате сбрасывать нечего.
+    private void applyAfterCommit(List<UserActionAvro> avros, Map<Long, Double> changedTotals) {
+        Set<Long> userIds = new HashSet<>();
+        for (UserActionAvro avro : avros) {
+            userIds.add(avro.getUserId());
         }
-        UserAction userAction = userActionMapper.AvroToEntity(avro, newWeight);
-        userAction.setActionType(newType);
-        userActionRepository.save(userAction);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                eventInteractionTotals.update(changedTotals);
+                for (UserActionAvro avro : avros) {
+                    recentInteractions.record(avro.getUserId(), avro.getEventId(), avro.getTimestamp());
+                    seenEvents.record(avro.getUserId(), avro.getEventId());
+                }
+                userIds.forEach(recommendationCache::invalidateUser);
+            }
+        });
     }
 
     private ActionType avroTypeToEntity(ActionTypeAvro avroType) {
@@ -57,10 +97,6 @@ public class UserActionService implements analyzer.service.UserActionService {
     }
 
     private double getWeightForAction(ActionType actionType) {
-        return switch (actionType) {
-            case VIEW -> weightProperties.getView();
-            case REGISTER -> weightProperties.getRegister();
-            case LIKE -> weightProperties.getLike();
-        };
+        return weightProperties.weightOf(actionType);
     }
 }
@@ -0,0 +1,28 @@
+-- Переход существующей базы анализатора на направленное хранение оценок схожести.
+-- Выполняется один раз на работающей базе: psql -h localhost -p 6541 -U stat stat -f 001_similarity_neighbours.sql
+-- Скрипт можно запускать повторно и одновременно с анализатором новой версии: свежие оценки, уже записанные
+-- анализатором в similarity_neighbours, перенос не перезаписывает.
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS similarity_neighbours (
+    source_event BIGINT NOT NULL,
+    neighbour_event BIGINT NOT NULL,
+    score DOUBLE PRECISION NOT NULL,
+    timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (source_event, neighbour_event)
+);
+
+INSERT INTO similarity_neighbours (source_event, neighbour_event, score, timestamp)
+SELECT event_a, event_b, score, timestamp FROM similarities
+UNION ALL
+SELECT event_b, event_a, score, timestamp FROM similarities
+ON CONFLICT (source_event, neighbour_event) DO NOTHING;
+
+COMMIT;
+
+-- Индекс строится после переноса: так быстрее, чем обновлять его на каждой вставке.
+-- CONCURRENTLY не блокирует запись и поэтому выполняется вне транзакции.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS similarity_neighbours_source_score_idx
+    ON similarity_neighbours (source_event, score DESC);
+
+ANALYZE similarity_neighbours;
@@ -0,0 +1,16 @@
+-- Итоги весов взаимодействий по событиям для существующей базы анализатора.
+-- Выполняется при остановленном анализаторе, иначе действия, записанные во время пересчета, будут учтены дважды:
+-- psql -h localhost -p 6541 -U stat stat -f 002_event_interaction_totals.sql
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS event_interaction_totals (
+    event_id BIGINT PRIMARY KEY,
+    total_weight DOUBLE PRECISION NOT NULL
+);
+
+-- Повторный запуск пересчитывает итоги заново.
+INSERT INTO event_interaction_totals (event_id, total_weight)
+SELECT event_id, SUM(action_weight) FROM user_actions GROUP BY event_id
+ON CONFLICT (event_id) DO UPDATE SET total_weight = EXCLUDED.total_weight;
+
+COMMIT;
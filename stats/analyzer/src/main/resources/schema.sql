@@ -8,6 +8,15 @@ CREATE TABLE IF NOT EXISTS user_actions (
     timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
     UNIQUE (user_id, event_id)
 );
+-- Последние события пользователя для затравки рекомендаций.
+CREATE INDEX IF NOT EXISTS user_actions_user_timestamp_idx ON user_actions (user_id, timestamp DESC);
+
+-- Сумма весов действий по событию, поддерживается тем же запросом, что пишет user_actions.
+DROP TABLE IF EXISTS event_interaction_totals;
+CREATE TABLE IF NOT EXISTS event_interaction_totals (
+    event_id BIGINT PRIMARY KEY,
+    total_weight DOUBLE PRECISION NOT NULL
+);
 
 DROP TABLE IF EXISTS similarities;
 CREATE TABLE IF NOT EXISTS similarities (
@@ -17,4 +26,17 @@ CREATE TABLE IF NOT EXISTS similarities (
     score DOUBLE PRECISION,
     timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
     UNIQUE (event_a, event_b)
-);
\ No newline at end of file
+);
+
+-- Те же оценки в направленном виде: по строке на каждое направление пары.
+-- Индекс (source_event, score DESC) отдает лучших соседей события чтением диапазона индекса.
+DROP TABLE IF EXISTS similarity_neighbours;
+CREATE TABLE IF NOT EXISTS similarity_neighbours (
+    source_event BIGINT NOT NULL,
+    neighbour_event BIGINT NOT NULL,
+    score DOUBLE PRECISION NOT NULL,
+    timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (source_event, neighbour_event)
+);
+CREATE INDEX IF NOT EXISTS similarity_neighbours_source_score_idx
+    ON similarity_neighbours (source_event, score DESC);
@@ -0,0 +1,114 @@
+package analyzer.repository;
+
+import analyzer.model.EventSimilarity;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// -- Пакетный upsert с ON CONFLICT проверяется на настоящем PostgreSQL.
+class EventSimilarityUpsertRepositoryImplTest {
+    private static final Instant FIRST = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant SECOND = Instant.parse("2024-01-02T00:00:00Z");
+
+    private static EmbeddedPostgres postgres;
+
+    private JdbcTemplate jdbcTemplate;
+    private EventSimilarityUpsertRepositoryImpl repository;
+
+    @BeforeAll
+    static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @BeforeEach
+    void createSchema() {
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbcTemplate.getDataSource());
+        repository = new EventSimilarityUpsertRepositoryImpl(jdbcTemplate);
+    }
+
+    @Test
+    void repeatedUpsertReplacesScoreAndTimestampOfPairAndBothDirections() {
+        repository.upsertAll(List.of(similarity(1, 2, 0.5, FIRST), similarity(1, 3, 0.7, FIRST)));
+
+        repository.upsertAll(List.of(similarity(1, 2, 0.9, SECOND)));
+
+        assertThat(rows("SELECT event_a, event_b, score, timestamp FROM similarities ORDER BY event_a, event_b"))
+                .containsExactly(row(1, 2, 0.9, SECOND), row(1, 3, 0.7, FIRST));
+        assertThat(rows("SELECT source_event, neighbour_event, score, timestamp FROM similarity_neighbours "
+                + "ORDER BY source_event, neighbour_event"))
+                .containsExactly(row(1, 2, 0.9, SECOND), row(1, 3, 0.7, FIRST),
+                        row(2, 1, 0.9, SECOND), row(3, 1, 0.7, FIRST));
+    }
+
+    // -- База до перехода: оценки только в similarities. Скрипт переносит оба направления каждой пары,
+    // -- а повторный запуск не перезаписывает оценки, которые анализатор новой версии уже записал сам.
+    @Test
+    void migrationBackfillsBothDirectionsAndCanBeRerun() {
+        jdbcTemplate.execute("DROP TABLE similarity_neighbours");
+        jdbcTemplate.update("INSERT INTO similarities (event_a, event_b, score, timestamp) VALUES (1, 2, 0.5, ?), "
+                + "(1, 3, 0.7, ?)", Timestamp.from(FIRST), Timestamp.from(FIRST));
+
+        migrate();
+
+        assertThat(rows("SELECT source_event, neighbour_event, score, timestamp FROM similarity_neighbours "
+                + "ORDER BY source_event, neighbour_event"))
+                .containsExactly(row(1, 2, 0.5, FIRST), row(1, 3, 0.7, FIRST),
+                        row(2, 1, 0.5, FIRST), row(3, 1, 0.7, FIRST));
+
+        repository.upsertAll(List.of(similarity(1, 2, 0.9, SECOND)));
+        migrate();
+
+        assertThat(rows("SELECT source_event, neighbour_event, score, timestamp FROM similarity_neighbours "
+                + "ORDER BY source_event, neighbour_event"))
+                .containsExactly(row(1, 2, 0.9, SECOND), row(1, 3, 0.7, FIRST),
+                        row(2, 1, 0.9, SECOND), row(3, 1, 0.7, FIRST));
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM pg_indexes WHERE tablename = "
+                + "'similarity_neighbours' AND indexname = 'similarity_neighbours_source_score_idx'", Long.class))
+                .isEqualTo(1);
+    }
+
+    @Test
+    void emptyBatchDoesNotQueryDatabase() {
+        new EventSimilarityUpsertRepositoryImpl(null).upsertAll(List.of());
+    }
+
+    // -- Скрипт выполняется по одной инструкции в режиме autocommit, как psql -f: BEGIN и COMMIT из скрипта
+    // -- ограничивают перенос, а CREATE INDEX CONCURRENTLY идет вне транзакции.
+    private void migrate() {
+        new ResourceDatabasePopulator(new ClassPathResource("migration/001_similarity_neighbours.sql"))
+                .execute(jdbcTemplate.getDataSource());
+    }
+
+    // -- Строки (событие, событие, оценка, время) в виде, удобном для сравнения.
+    private List<String> rows(String sql) {
+        return jdbcTemplate.query(sql, (resultSet, rowNumber) -> row(resultSet.getLong(1), resultSet.getLong(2),
+                resultSet.getDouble(3), resultSet.getObject(4, OffsetDateTime.class).toInstant()));
+    }
+
+    private static String row(long first, long second, double score, Instant timestamp) {
+        return first + " -> " + second + ": " + score + " @ " + timestamp;
+    }
+
+    private static EventSimilarity similarity(long eventA, long eventB, double score, Instant timestamp) {
+        return EventSimilarity.builder().eventA(eventA).eventB(eventB).score(score).timestamp(timestamp).build();
+    }
+}
@@ -0,0 +1,103 @@
+package analyzer.repository;
+
+import analyzer.config.SimilarityIndexProperties;
+import analyzer.model.EventSimilarity;
+import analyzer.model.Recommendation;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+// -- Запрос опирается на LATERAL и LIMIT NULL PostgreSQL, поэтому проверяется на настоящей базе.
+class RecommendationQueryRepositoryImplTest {
+    private static EmbeddedPostgres postgres;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    // -- Пользователь 1 оценил события 10 (1.0) и 20 (0.4, позже). Кандидаты — 30 и 40; у 30 лучший сосед 50,
+    // -- которого пользователь не оценивал.
+    @BeforeEach
+    void createData() {
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbcTemplate.getDataSource());
+        jdbcTemplate.update("""
+                INSERT INTO user_actions (user_id, event_id, action_type, action_weight, timestamp)
+                VALUES (1, 10, 'LIKE', 1.0, TIMESTAMPTZ '2024-01-01 00:00:01Z'),
+                       (1, 20, 'VIEW', 0.4, TIMESTAMPTZ '2024-01-01 00:00:02Z')
+                """);
+        similarity(10, 30, 0.9);
+        similarity(10, 40, 0.5);
+        similarity(10, 20, 0.3);
+        similarity(20, 30, 0.6);
+        similarity(20, 40, 0.8);
+        similarity(30, 50, 0.95);
+    }
+
+    @Test
+    void scoresCandidatesByAllNeighboursWithoutLimit() {
+        RecommendationQueryRepository.RecommendationRows rows = repository(0).findRecommendations(1, 5);
+
+        assertThat(rows.recentEventIds()).containsExactly(20L, 10L);
+        assertThat(rows.candidateEventIds()).containsExactlyInAnyOrder(30L, 40L);
+        assertThat(rows.recommendations()).extracting(Recommendation::getEventId).containsExactly(30L, 40L);
+        // -- 30: (1.0 * 0.9 + 0.4 * 0.6) / 1.5; 40: (0.4 * 0.8 + 1.0 * 0.5) / 1.3.
+        assertThat(rows.recommendations().get(0).getScore()).isCloseTo(0.76, within(1e-9));
+        assertThat(rows.recommendations().get(1).getScore()).isCloseTo(0.82 / 1.3, within(1e-9));
+    }
+
+    @Test
+    void seesOnlyMaxNeighboursBestNeighboursOfEachEvent() {
+        RecommendationQueryRepository.RecommendationRows rows = repository(1).findRecommendations(1, 5);
+
+        // -- Лучший сосед 10 — 30, лучший сосед 20 — 40. Лучший сосед 30 — неоцененное 50, поэтому у 30 нет оценки,
+        // -- хотя с ограничением только после соединения с действиями пользователя она нашлась бы через 10.
+        assertThat(rows.candidateEventIds()).containsExactlyInAnyOrder(30L, 40L);
+        assertThat(rows.recommendations()).extracting(Recommendation::getEventId).containsExactly(40L);
+        assertThat(rows.recommendations().get(0).getScore()).isCloseTo(0.4, within(1e-9));
+    }
+
+    @Test
+    void forEachActionWeightPassesOnlyRatedEvents() {
+        Map<Long, Double> weights = new HashMap<>();
+
+        repository(0).forEachActionWeight(1, new long[]{10, 20, 30}, weights::put);
+
+        assertThat(weights).containsOnly(Map.entry(10L, 1.0), Map.entry(20L, 0.4));
+    }
+
+    private RecommendationQueryRepositoryImpl repository(int maxNeighbours) {
+        SimilarityIndexProperties properties = new SimilarityIndexProperties();
+        properties.setMaxNeighbours(maxNeighbours);
+        return new RecommendationQueryRepositoryImpl(new NamedParameterJdbcTemplate(jdbcTemplate), properties);
+    }
+
+    // -- Схожесть записывается тем же путем, что и в сервисе: пара и оба направления.
+    private void similarity(long eventA, long eventB, double score) {
+        new EventSimilarityUpsertRepositoryImpl(jdbcTemplate).upsertAll(List.of(EventSimilarity.builder()
+                .eventA(eventA).eventB(eventB).score(score).timestamp(Instant.now()).build()));
+    }
+}
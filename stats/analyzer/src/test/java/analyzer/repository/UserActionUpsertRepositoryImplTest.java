@@ -0,0 +1,119 @@
+package analyzer.repository;
+
+import analyzer.model.ActionType;
+import analyzer.model.UserAction;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+// -- Запрос использует изменяющие CTE, unnest нескольких массивов и ON CONFLICT, поэтому проверяется
+// -- на настоящем PostgreSQL, а не на H2.
+class UserActionUpsertRepositoryImplTest {
+    private static EmbeddedPostgres postgres;
+
+    private JdbcTemplate jdbcTemplate;
+    private UserActionUpsertRepositoryImpl repository;
+
+    @BeforeAll
+    static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @BeforeEach
+    void createSchema() {
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbcTemplate.getDataSource());
+        repository = new UserActionUpsertRepositoryImpl(jdbcTemplate);
+    }
+
+    @Test
+    void insertsNewActionsAndSumsTotalsPerEvent() {
+        Map<Long, Double> totals = repository.upsertMaxWeights(List.of(
+                action(1, 10, ActionType.VIEW, 0.4, 1000),
+                action(2, 10, ActionType.LIKE, 1.0, 2000),
+                action(1, 20, ActionType.REGISTER, 0.8, 3000)));
+
+        assertThat(totals).containsOnly(Map.entry(10L, 1.4), Map.entry(20L, 0.8));
+        assertThat(storedTotals()).containsOnly(Map.entry(10L, 1.4), Map.entry(20L, 0.8));
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT timestamp FROM user_actions WHERE user_id = 1 AND event_id = 20", Instant.class))
+                .isEqualTo(Instant.ofEpochMilli(3000));
+    }
+
+    @Test
+    void heavierActionReplacesStoredAndAddsOnlyItsIncrement() {
+        repository.upsertMaxWeights(List.of(
+                action(1, 10, ActionType.VIEW, 0.4, 1000),
+                action(2, 10, ActionType.REGISTER, 0.8, 1000)));
+
+        Map<Long, Double> totals = repository.upsertMaxWeights(List.of(action(1, 10, ActionType.LIKE, 1.0, 2000)));
+
+        // -- 0.4 + 0.8, затем прирост 1.0 - 0.4; суммы double сравниваются с допуском.
+        assertThat(totals).containsOnlyKeys(10L);
+        assertThat(totals.get(10L)).isCloseTo(1.8, within(1e-9));
+        assertThat(jdbcTemplate.queryForMap(
+                "SELECT action_type, action_weight FROM user_actions WHERE user_id = 1 AND event_id = 10"))
+                .containsEntry("action_type", "LIKE")
+                .containsEntry("action_weight", 1.0);
+    }
+
+    @Test
+    void lighterOrEqualActionChangesNothing() {
+        repository.upsertMaxWeights(List.of(action(1, 10, ActionType.LIKE, 1.0, 2000)));
+
+        Map<Long, Double> lighter = repository.upsertMaxWeights(List.of(action(1, 10, ActionType.VIEW, 0.4, 3000)));
+        Map<Long, Double> equal = repository.upsertMaxWeights(List.of(action(1, 10, ActionType.LIKE, 1.0, 4000)));
+
+        // -- Итоги, которые не изменились, не возвращаются: память анализатора их не трогает.
+        assertThat(lighter).isEmpty();
+        assertThat(equal).isEmpty();
+        assertThat(storedTotals()).containsOnly(Map.entry(10L, 1.0));
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT timestamp FROM user_actions WHERE user_id = 1 AND event_id = 10", Instant.class))
+                .isEqualTo(Instant.ofEpochMilli(2000));
+    }
+
+    @Test
+    void emptyBatchDoesNotQueryDatabase() {
+        assertThat(new UserActionUpsertRepositoryImpl(null).upsertMaxWeights(List.of())).isEmpty();
+    }
+
+    private Map<Long, Double> storedTotals() {
+        return jdbcTemplate.query("SELECT event_id, total_weight FROM event_interaction_totals", resultSet -> {
+            Map<Long, Double> totals = new HashMap<>();
+            while (resultSet.next()) {
+                totals.put(resultSet.getLong(1), resultSet.getDouble(2));
+            }
+            return totals;
+        });
+    }
+
+    private static UserAction action(long userId, long eventId, ActionType type, double weight, long epochMilli) {
+        return UserAction.builder()
+                .userId(userId)
+                .eventId(eventId)
+                .actionType(type)
+                .actionWeight(weight)
+                .timestamp(Instant.ofEpochMilli(epochMilli))
+                .build();
+    }
+}
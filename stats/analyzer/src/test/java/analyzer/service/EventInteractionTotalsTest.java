@@ -0,0 +1,42 @@
+package analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventInteractionTotalsTest {
+    // -- Таблица не читается: load() вызывается только контейнером.
+    private final EventInteractionTotals totals = new EventInteractionTotals(null);
+
+    @Test
+    void returnsTotalsInRequestOrderWithZeroForEventsWithoutActions() {
+        totals.update(Map.of(1L, 0.4, 2L, 1.8));
+
+        assertThat(totals.get(List.of(2L, 3L, 1L))).containsExactly(1.8, 0.0, 0.4);
+    }
+
+    @Test
+    void olderTotalOfParallelBatchDoesNotOverwriteNewer() {
+        totals.update(Map.of(1L, 1.2));
+        // -- Пачка, зафиксированная раньше, применяется позже и несет меньший итог.
+        totals.update(Map.of(1L, 0.8, 2L, 0.4));
+
+        assertThat(totals.get(List.of(1L, 2L))).containsExactly(1.2, 0.4);
+    }
+
+    @Test
+    void keepsAllEventsWhenTableGrows() {
+        Map<Long, Double> changed = new HashMap<>();
+        for (long eventId = 0; eventId < 1000; eventId++) {
+            changed.put(eventId * 1024, eventId + 0.5);
+        }
+
+        totals.update(changed);
+
+        assertThat(totals.get(List.of(0L, 1024L, 999L * 1024, 7L))).containsExactly(0.5, 1.5, 999.5, 0.0);
+    }
+}
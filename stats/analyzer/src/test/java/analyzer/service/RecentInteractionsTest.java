@@ -0,0 +1,102 @@
+package analyzer.service;
+
+import analyzer.config.RecentInteractionsProperties;
+import analyzer.repository.UserActionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecentInteractionsTest {
+    private final UserActionRepository repository = mock(UserActionRepository.class);
+
+    @Test
+    void recordMovesRepeatedEventToItsLatestPosition() {
+        RecentInteractions interactions = interactions(3);
+        when(repository.findRecentInteractions(anyLong(), any(Pageable.class)))
+                .thenReturn(rows(30, 3000, 20, 2000, 10, 1000));
+        assertThat(interactions.findRecentEventIds(1, 3)).containsExactly(30L, 20L, 10L);
+
+        interactions.record(1, 10, Instant.ofEpochMilli(4000));
+        assertThat(interactions.findRecentEventIds(1, 3)).containsExactly(10L, 30L, 20L);
+
+        // -- Более старое действие с событием из списка не сдвигает его назад.
+        interactions.record(1, 10, Instant.ofEpochMilli(500));
+        assertThat(interactions.findRecentEventIds(1, 3)).containsExactly(10L, 30L, 20L);
+    }
+
+    @Test
+    void recordDropsOldestBeyondSizeAndIgnoresOlderThanFullList() {
+        RecentInteractions interactions = interactions(2);
+        when(repository.findRecentInteractions(anyLong(), any(Pageable.class)))
+                .thenReturn(rows(20, 2000, 10, 1000));
+        interactions.findRecentEventIds(1, 2);
+
+        interactions.record(1, 5, Instant.ofEpochMilli(500));
+        assertThat(interactions.findRecentEventIds(1, 2)).containsExactly(20L, 10L);
+
+        interactions.record(1, 30, Instant.ofEpochMilli(3000));
+        assertThat(interactions.findRecentEventIds(1, 2)).containsExactly(30L, 20L);
+        verify(repository, times(1)).findRecentInteractions(anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    void recordOfUnloadedUserIsLeftToDatabase() {
+        RecentInteractions interactions = interactions(3);
+        interactions.record(1, 10, Instant.ofEpochMilli(1000));
+        when(repository.findRecentInteractions(anyLong(), any(Pageable.class))).thenReturn(List.of());
+
+        assertThat(interactions.findRecentEventIds(1, 3)).isEmpty();
+    }
+
+    @Test
+    void actionCommittedDuringLoadIsMergedWithLoadedRows() {
+        RecentInteractions interactions = interactions(3);
+        // -- Действие фиксируется, пока база отдает строки, прочитанные до его фиксации.
+        when(repository.findRecentInteractions(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            interactions.record(1, 40, Instant.ofEpochMilli(4000));
+            return rows(20, 2000, 10, 1000);
+        });
+
+        assertThat(interactions.findRecentEventIds(1, 3)).containsExactly(40L, 20L, 10L);
+    }
+
+    @Test
+    void failedLoadLeavesNoPlaceholder() {
+        RecentInteractions interactions = interactions(3);
+        when(repository.findRecentInteractions(anyLong(), any(Pageable.class)))
+                .thenThrow(new IllegalStateException("database is down"))
+                .thenReturn(rows(20, 2000));
+
+        assertThatThrownBy(() -> interactions.findRecentEventIds(1, 3)).isInstanceOf(IllegalStateException.class);
+        // -- Без заготовки действие не попадает в память, а следующий запрос снова читает базу.
+        interactions.record(1, 40, Instant.ofEpochMilli(4000));
+        assertThat(interactions.findRecentEventIds(1, 3)).containsExactly(20L);
+    }
+
+    private RecentInteractions interactions(int size) {
+        RecentInteractionsProperties properties = new RecentInteractionsProperties();
+        properties.setSize(size);
+        return new RecentInteractions(repository, properties);
+    }
+
+    // -- Строки запроса findRecentInteractions: пары (eventId, время в миллисекундах).
+    private static List<Object[]> rows(long... values) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 2) {
+            rows.add(new Object[]{values[i], Instant.ofEpochMilli(values[i + 1])});
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,116 @@
+package analyzer.service;
+
+import analyzer.config.RecommendationCacheProperties;
+import org.junit.jupiter.api.Test;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecommendationCacheTest {
+    private final RecommendationCache cache = new RecommendationCache(new RecommendationCacheProperties());
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void cachesResultUntilDependencyChanges() {
+        Supplier<RecommendationCache.Result> loader = loader(10L, 20L);
+
+        assertThat(cache.get(1, 5, loader)).extracting(RecommendedEventProto::getEventId).containsExactly(10L);
+        cache.get(1, 5, loader);
+        assertThat(loads).hasValue(1);
+
+        cache.invalidateSimilarity(30, 40);
+        cache.get(1, 5, loader);
+        assertThat(loads).hasValue(1);
+
+        cache.invalidateSimilarity(20, 40);
+        cache.get(1, 5, loader);
+        assertThat(loads).hasValue(2);
+
+        // -- Результат хранится для одного размера выдачи.
+        cache.get(1, 6, loader);
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void loaderRunsWithoutBlockingInvalidationOfSameUser() throws Exception {
+        Supplier<RecommendationCache.Result> loader = () -> {
+            // -- Действие пользователя фиксируется в другом потоке, пока идет расчет.
+            CompletableFuture.runAsync(() -> cache.invalidateUser(1)).orTimeout(5, TimeUnit.SECONDS).join();
+            return loader(10L).get();
+        };
+
+        cache.get(1, 5, loader);
+        cache.get(1, 5, loader(10L));
+
+        // -- Результат, посчитанный до действия, не сохранен.
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void changeOfDependencyDuringLoadDiscardsResult() {
+        cache.get(1, 5, () -> {
+            cache.invalidateSimilarity(20, 40);
+            return loader(10L, 20L).get();
+        });
+        cache.get(1, 5, loader(10L, 20L));
+        assertThat(loads).hasValue(2);
+
+        // -- Изменение оценок событий, от которых результат не зависит, его сохранить не мешает.
+        cache.get(2, 5, () -> {
+            cache.invalidateSimilarity(30, 40);
+            return loader(10L, 20L).get();
+        });
+        cache.get(2, 5, loader(10L, 20L));
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void concurrentRequestsOfUserShareOneLoad() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<RecommendedEventProto>> first = CompletableFuture.supplyAsync(() ->
+                cache.get(1, 5, () -> {
+                    started.countDown();
+                    await(release);
+                    return loader(10L).get();
+                }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<List<RecommendedEventProto>> second =
+                CompletableFuture.supplyAsync(() -> cache.get(1, 5, loader(99L)));
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).extracting(RecommendedEventProto::getEventId)
+                .containsExactly(10L);
+        assertThat(second.get(5, TimeUnit.SECONDS)).extracting(RecommendedEventProto::getEventId)
+                .containsExactly(10L);
+        assertThat(loads).hasValue(1);
+    }
+
+    // -- Loader, который считает вызовы и возвращает первое событие как рекомендацию, а все — как зависимости.
+    private Supplier<RecommendationCache.Result> loader(Long... eventIds) {
+        return () -> {
+            loads.incrementAndGet();
+            RecommendedEventProto recommendation = RecommendedEventProto.newBuilder()
+                    .setEventId(eventIds[0])
+                    .setScore(1.0f)
+                    .build();
+            return new RecommendationCache.Result(List.of(recommendation), List.of(eventIds));
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
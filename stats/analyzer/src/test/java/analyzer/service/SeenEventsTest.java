@@ -0,0 +1,63 @@
+package analyzer.service;
+
+import analyzer.config.SeenEventsProperties;
+import analyzer.repository.UserActionRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeenEventsTest {
+    private final UserActionRepository repository = mock(UserActionRepository.class);
+    private final SeenEvents seenEvents = new SeenEvents(repository, new SeenEventsProperties());
+
+    @Test
+    void loadsUserOnceAndAddsRecordedEvents() {
+        when(repository.findEventIdsByUserId(anyLong())).thenReturn(Set.of(10L, 20L));
+        LongPredicate before = seenEvents.seenBy(1);
+
+        seenEvents.record(1, 30);
+        LongPredicate after = seenEvents.seenBy(1);
+
+        assertThat(after.test(10) && after.test(20) && after.test(30)).isTrue();
+        // -- Опубликованное множество не меняется: полученная раньше проверка нового события не видит.
+        assertThat(before.test(30)).isFalse();
+        verify(repository, times(1)).findEventIdsByUserId(anyLong());
+    }
+
+    @Test
+    void actionCommittedDuringLoadIsMergedWithLoadedEvents() {
+        // -- Действие фиксируется, пока база отдает события, прочитанные до его фиксации.
+        when(repository.findEventIdsByUserId(anyLong())).thenAnswer(invocation -> {
+            seenEvents.record(1, 30);
+            return Set.of(10L);
+        });
+
+        LongPredicate seen = seenEvents.seenBy(1);
+
+        assertThat(seen.test(10)).isTrue();
+        assertThat(seen.test(30)).isTrue();
+    }
+
+    @Test
+    void failedLoadLeavesNoPlaceholder() {
+        when(repository.findEventIdsByUserId(anyLong()))
+                .thenThrow(new IllegalStateException("database is down"))
+                .thenReturn(Set.of(10L));
+
+        assertThatThrownBy(() -> seenEvents.seenBy(1)).isInstanceOf(IllegalStateException.class);
+        seenEvents.record(1, 30);
+        LongPredicate seen = seenEvents.seenBy(1);
+
+        assertThat(seen.test(10)).isTrue();
+        assertThat(seen.test(30)).isFalse();
+    }
+}
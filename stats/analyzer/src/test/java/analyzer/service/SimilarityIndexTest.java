@@ -0,0 +1,143 @@
+package analyzer.service;
+
+import analyzer.config.SimilarityIndexProperties;
+import analyzer.model.EventSimilarity;
+import analyzer.model.Recommendation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimilarityIndexTest {
+
+    @Test
+    void keepsNeighboursOrderedByScoreThenId() {
+        SimilarityIndex index = index(0);
+        update(index, 1, 4, 0.5);
+        update(index, 1, 2, 0.9);
+        update(index, 1, 3, 0.5);
+
+        assertThat(eventIds(index.findTopSimilarExcluding(1, id -> false, 10))).containsExactly(2L, 3L, 4L);
+        // -- Пара попадает в списки обоих событий.
+        assertThat(eventIds(index.findTopSimilarExcluding(4, id -> false, 10))).containsExactly(1L);
+    }
+
+    @Test
+    void updateMovesExistingNeighbourWithoutDuplicating() {
+        SimilarityIndex index = index(0);
+        update(index, 1, 2, 0.9);
+        update(index, 1, 3, 0.5);
+        update(index, 1, 4, 0.1);
+
+        update(index, 1, 2, 0.3);
+        update(index, 1, 4, 0.95);
+
+        List<Recommendation> neighbours = index.findTopSimilarExcluding(1, id -> false, 10);
+        assertThat(eventIds(neighbours)).containsExactly(4L, 3L, 2L);
+        assertThat(neighbours.get(2).getScore()).isEqualTo(0.3);
+    }
+
+    @Test
+    void boundedListDropsWorstAndIgnoresWeakerNewcomers() {
+        SimilarityIndex index = index(2);
+        update(index, 1, 2, 0.5);
+        update(index, 1, 3, 0.7);
+
+        // -- Новый сосед хуже всех в полном списке и не добавляется.
+        update(index, 1, 4, 0.1);
+        assertThat(eventIds(index.findTopSimilarExcluding(1, id -> false, 10))).containsExactly(3L, 2L);
+
+        update(index, 1, 5, 0.8);
+        assertThat(eventIds(index.findTopSimilarExcluding(1, id -> false, 10))).containsExactly(5L, 3L);
+        // -- Сосед, который уже в списке, опускается на последнее место, а не вытесняется.
+        update(index, 1, 5, 0.2);
+        assertThat(eventIds(index.findTopSimilarExcluding(1, id -> false, 10))).containsExactly(3L, 5L);
+    }
+
+    @Test
+    void mergesSourcesByMaxScoreAndSkipsExcluded() {
+        SimilarityIndex index = index(0);
+        update(index, 1, 10, 0.4);
+        update(index, 1, 11, 0.9);
+        update(index, 2, 10, 0.8);
+        update(index, 2, 12, 0.6);
+        update(index, 2, 11, 0.3);
+
+        List<Recommendation> result = index.findTopSimilarToSetExcluding(List.of(1L, 2L, 3L),
+                id -> id == 12 || id == 1 || id == 2, 10);
+
+        assertThat(eventIds(result)).containsExactly(11L, 10L);
+        assertThat(result.get(1).getScore()).isEqualTo(0.8);
+        assertThat(index.findTopSimilarToSetExcluding(Set.of(3L), id -> false, 10)).isEmpty();
+    }
+
+    @Test
+    void forEachNeighbourStopsAtLimit() {
+        SimilarityIndex index = index(0);
+        update(index, 1, 2, 0.9);
+        update(index, 1, 3, 0.8);
+        update(index, 1, 4, 0.7);
+        StringBuilder visited = new StringBuilder();
+
+        index.forEachNeighbourIncluding(1, id -> id != 2, 1, (eventId, score) -> visited.append(eventId));
+
+        assertThat(visited).hasToString("3");
+    }
+
+    @Test
+    void batchRebuildsEachEventOnceWithSameResultAsBruteForce() {
+        SimilarityIndex index = index(5);
+        SplittableRandom random = new SplittableRandom(7);
+        // -- Горячее событие 1 в паре с каждым из 300 событий и случайные пары остальных событий, без повторов.
+        Map<List<Long>, EventSimilarity> batch = new LinkedHashMap<>();
+        for (long eventId = 2; eventId <= 301; eventId++) {
+            batch.put(List.of(1L, eventId), similarity(1, eventId, random.nextInt(100) / 100.0));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            long eventA = 2 + random.nextInt(50);
+            long eventB = 2 + random.nextInt(50);
+            if (eventA < eventB) {
+                batch.put(List.of(eventA, eventB), similarity(eventA, eventB, random.nextInt(100) / 100.0));
+            }
+        }
+
+        index.updateAll(batch.values());
+
+        for (long eventId = 1; eventId <= 301; eventId++) {
+            long source = eventId;
+            List<Long> expected = batch.values().stream()
+                    .filter(pair -> pair.getEventA() == source || pair.getEventB() == source)
+                    .sorted(Comparator.comparing(EventSimilarity::getScore, Comparator.reverseOrder())
+                            .thenComparing(pair -> pair.getEventA() == source ? pair.getEventB() : pair.getEventA()))
+                    .limit(5)
+                    .map(pair -> pair.getEventA() == source ? pair.getEventB() : pair.getEventA())
+                    .toList();
+            assertThat(eventIds(index.findTopSimilarExcluding(eventId, id -> false, 10))).isEqualTo(expected);
+        }
+    }
+
+    private static void update(SimilarityIndex index, long eventA, long eventB, double score) {
+        index.updateAll(List.of(similarity(eventA, eventB, score)));
+    }
+
+    private static EventSimilarity similarity(long eventA, long eventB, double score) {
+        return EventSimilarity.builder().eventA(eventA).eventB(eventB).score(score).build();
+    }
+
+    private static SimilarityIndex index(int maxNeighbours) {
+        SimilarityIndexProperties properties = new SimilarityIndexProperties();
+        properties.setMaxNeighbours(maxNeighbours);
+        // -- Таблица similarities не читается: load() вызывается только контейнером.
+        return new SimilarityIndex(null, null, properties);
+    }
+
+    private static List<Long> eventIds(List<Recommendation> recommendations) {
+        return recommendations.stream().map(Recommendation::getEventId).toList();
+    }
+}
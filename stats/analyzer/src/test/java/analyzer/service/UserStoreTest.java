@@ -0,0 +1,81 @@
+package analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserStoreTest {
+
+    @Test
+    void evictsLeastRecentlyAccessedUsersRatherThanLowestIds() {
+        List<Long> evicted = new ArrayList<>();
+        UserStore<String> store = new UserStore<>(16, (userId, value) -> evicted.add(userId));
+        for (long userId = 1; userId <= 16; userId++) {
+            load(store, userId);
+        }
+        // -- Пользователи с меньшими id запрашиваются снова и становятся самыми свежими.
+        for (long userId = 1; userId <= 8; userId++) {
+            assertThat(store.get(userId)).isEqualTo("user-" + userId);
+        }
+
+        load(store, 100);
+
+        // -- Предел 16 превышен: вытесняются до 15 пользователей — двое, к кому дольше всего не обращались.
+        assertThat(evicted).containsExactlyInAnyOrder(9L, 10L);
+        assertThat(store.size()).isEqualTo(15);
+        for (long userId = 1; userId <= 8; userId++) {
+            assertThat(store.get(userId)).isNotNull();
+        }
+        assertThat(store.get(100)).isEqualTo("user-100");
+    }
+
+    @Test
+    void placeholderIsNeitherReturnedNorEvictedWhileLoading() {
+        UserStore<String> store = new UserStore<>(2);
+
+        String value = store.getOrLoad(1, "", userId -> {
+            assertThat(store.get(1)).isNull();
+            // -- Пока пользователь 1 загружается, другие пользователи переполняют хранилище.
+            for (long other = 2; other <= 5; other++) {
+                load(store, other);
+            }
+            store.update(1, recorded -> recorded + "+action");
+            return "loaded";
+        }, (loaded, recorded) -> loaded + recorded);
+
+        assertThat(value).isEqualTo("loaded+action");
+        assertThat(store.get(1)).isEqualTo("loaded+action");
+    }
+
+    @Test
+    void failedLoadRemovesPlaceholderAndUpdateDoesNotAddUsers() {
+        UserStore<String> store = new UserStore<>(4);
+
+        assertThatThrownBy(() -> store.getOrLoad(1, "", userId -> {
+            throw new IllegalStateException("database is down");
+        }, (loaded, recorded) -> loaded)).isInstanceOf(IllegalStateException.class);
+        store.update(1, value -> value + "+action");
+
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void computeReturningNullRemovesUser() {
+        UserStore<String> store = new UserStore<>(4);
+        store.compute(1, current -> "first");
+        assertThat(store.compute(1, current -> current + "+second")).isEqualTo("first+second");
+
+        store.compute(1, current -> null);
+
+        assertThat(store.get(1)).isNull();
+        assertThat(store.remove(1)).isNull();
+    }
+
+    private static void load(UserStore<String> store, long userId) {
+        store.getOrLoad(userId, "", id -> "user-" + id, (loaded, recorded) -> loaded);
+    }
+}
@@ -0,0 +1,72 @@
+package analyzer.service;
+
+import analyzer.config.DecayProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+// -- Множители сверяются с теми же значениями, что и в WeightDecayTest агрегатора.
+class WeightDecayTest {
+    private static final Instant EPOCH = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Duration HALF_LIFE = Duration.ofDays(1);
+
+    private final WeightDecay decay = new WeightDecay(properties(true, HALF_LIFE));
+
+    @Test
+    void scaleDoublesEveryHalfLifeFromEpoch() {
+        assertThat(decay.scale(EPOCH)).isEqualTo(1.0);
+        assertThat(decay.scale(EPOCH.plus(Duration.ofDays(1)))).isEqualTo(2.0);
+        assertThat(decay.scale(EPOCH.plus(Duration.ofHours(12)))).isCloseTo(Math.sqrt(2.0), within(1e-15));
+        assertThat(decay.scale(EPOCH.minus(Duration.ofDays(2)))).isEqualTo(0.25);
+    }
+
+    @Test
+    void exponentIsClampedToPlusMinus960() {
+        assertThat(decay.scale(EPOCH.plus(Duration.ofDays(5000)))).isEqualTo(Math.scalb(1.0, 960));
+        assertThat(decay.scale(EPOCH.minus(Duration.ofDays(5000)))).isEqualTo(Math.scalb(1.0, -960));
+        // -- Начиная с 960 периодов после эпохи множитель не растет: это overflowAt агрегатора.
+        Instant overflowAt = EPOCH.plus(Duration.ofDays(960));
+        assertThat(decay.scale(overflowAt.plus(Duration.ofDays(1)))).isEqualTo(decay.scale(overflowAt));
+        assertThat(decay.descale(overflowAt.plus(Duration.ofDays(1)))).isEqualTo(Math.scalb(1.0, -960));
+    }
+
+    // -- Сохраненный вес, умноженный на descale(now), равен весу, затухшему от времени действия до now.
+    @Test
+    void descaleTurnsStoredWeightsIntoWeightsDecayedToNow() {
+        Instant now = EPOCH.plus(Duration.ofDays(10));
+        double storedLike = 1.0 * decay.scale(EPOCH.plus(Duration.ofDays(9)));
+        double storedView = 0.4 * decay.scale(EPOCH.plus(Duration.ofDays(7)));
+
+        assertThat(decay.descale(now)).isEqualTo(Math.scalb(1.0, -10));
+        assertThat(storedLike * decay.descale(now)).isEqualTo(0.5);
+        assertThat(storedView * decay.descale(now)).isCloseTo(0.05, within(1e-15));
+        assertThat((storedLike + storedView) * decay.descale(now)).isCloseTo(0.55, within(1e-15));
+    }
+
+    @Test
+    void disabledDecayKeepsWeights() {
+        WeightDecay disabled = new WeightDecay(properties(false, Duration.ZERO));
+
+        assertThat(disabled.scale(EPOCH.plus(Duration.ofDays(5000)))).isEqualTo(1.0);
+        assertThat(disabled.descale(EPOCH.plus(Duration.ofDays(5000)))).isEqualTo(1.0);
+    }
+
+    @Test
+    void enabledDecayRequiresPositiveHalfLife() {
+        assertThatThrownBy(() -> new WeightDecay(properties(true, Duration.ZERO)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static DecayProperties properties(boolean enabled, Duration halfLife) {
+        DecayProperties properties = new DecayProperties();
+        properties.setEnabled(enabled);
+        properties.setHalfLife(halfLife);
+        properties.setEpoch(EPOCH);
+        return properties;
+    }
+}
@@ -0,0 +1,77 @@
+package analyzer.service.impl;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CandidateScorerTest {
+    private final CandidateScorer scorer = new CandidateScorer();
+
+    @Test
+    void ranksCandidatesBySimilarityWeightedRating() {
+        scorer.reset();
+        scorer.addCandidate(100);
+        scorer.accept(1, 0.5);
+        scorer.accept(2, 0.5);
+        scorer.addCandidate(200);
+        scorer.accept(2, 0.9);
+        // -- Соседа 3 пользователь не оценивал: он не входит ни в сумму весов, ни в сумму схожестей.
+        scorer.accept(3, 0.8);
+        scorer.addCandidate(300);
+        scorer.accept(3, 0.7);
+
+        assertThat(scorer.neighbourIds()).containsExactlyInAnyOrder(1, 2, 3);
+        scorer.rate(1, 1.0);
+        scorer.rate(2, 0.4);
+        // -- Оценки событий, которых нет среди соседей, пропускаются.
+        scorer.rate(4, 1.0);
+        scorer.applyRatings(2.0);
+
+        List<RecommendedEventProto> top = scorer.top(10);
+        // -- 100: (2.0 * 0.5 + 0.8 * 0.5) / 1.0 = 1.4; 200: 0.8; 300 без оценок не рекомендуется.
+        assertThat(top).extracting(RecommendedEventProto::getEventId).containsExactly(100L, 200L);
+        assertThat(top.get(0).getScore()).isEqualTo(1.4f);
+        assertThat(top.get(1).getScore()).isEqualTo(0.8f);
+    }
+
+    @Test
+    void keepsBestLimitAndBreaksTiesByEventId() {
+        scorer.reset();
+        long[] candidates = {50, 10, 40, 20, 30};
+        double[] ratings = {0.2, 0.6, 0.6, 0.9, 0.1};
+        for (int i = 0; i < candidates.length; i++) {
+            scorer.addCandidate(candidates[i]);
+            scorer.accept(i + 1, 0.5);
+        }
+        scorer.neighbourIds();
+        for (int i = 0; i < candidates.length; i++) {
+            scorer.rate(i + 1, ratings[i]);
+        }
+        scorer.applyRatings(1.0);
+
+        assertThat(scorer.top(3)).extracting(RecommendedEventProto::getEventId).containsExactly(20L, 10L, 40L);
+    }
+
+    @Test
+    void reusedScorerForgetsPreviousRequest() {
+        scorer.reset();
+        scorer.addCandidate(100);
+        scorer.accept(1, 0.5);
+        scorer.neighbourIds();
+        scorer.rate(1, 1.0);
+        scorer.applyRatings(1.0);
+        scorer.top(10);
+
+        scorer.reset();
+        scorer.addCandidate(200);
+        scorer.accept(1, 0.5);
+        assertThat(scorer.neighbourIds()).containsExactly(1);
+        // -- Оценка прошлого запроса не переносится в новый.
+        scorer.applyRatings(1.0);
+
+        assertThat(scorer.top(10)).isEmpty();
+    }
+}
@@ -0,0 +1,252 @@
+package analyzer.service;
+
+import analyzer.config.DecayProperties;
+import analyzer.config.RecentInteractionsProperties;
+import analyzer.config.RecommendationCacheProperties;
+import analyzer.config.RecommendationsProperties;
+import analyzer.config.SeenEventsProperties;
+import analyzer.config.SimilarityIndexProperties;
+import analyzer.config.WeightProperties;
+import analyzer.model.ActionType;
+import analyzer.model.EventSimilarity;
+import analyzer.model.UserAction;
+import analyzer.repository.EventSimilarityRepository;
+import analyzer.repository.UserActionRepository;
+import benchmarks.workload.Workloads;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+import ru.practicum.grpc.ewm.dashboard.message.UserPredictionsRequestProto;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Персональные рекомендации целиком: расчет в памяти (соседи, последние и просмотренные события из памяти,
+ * оценки пользователя — запросом к базе) против одного запроса к базе. Репозитории — репозитории Spring Data JPA
+ * анализатора в минимальном контексте Spring (JPA, транзакции и SQL-фрагменты, без Kafka и gRPC), веса действий
+ * берутся из {@link WeightProperties}, как при записи действий сервисом. Если jdbcUrl пуст, запускается встроенная
+ * PostgreSQL; иначе данные создаются в схеме recommendations_benchmark базы jdbcUrl и удаляются после прогона.
+ * Кэш рекомендаций выключен; пользователи запрашиваются по кругу, поэтому после разогрева расчет в памяти
+ * не читает их события из базы. Лежит в пакете индекса соседей, потому что его загрузка доступна только внутри пакета.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommendationSourceBenchmark {
+    private static final String SCHEMA = "recommendations_benchmark";
+    private static final int BATCH_SIZE = 1_000;
+
+    // -- Например jdbc:postgresql://localhost:6541/stat?reWriteBatchedInserts=true; пусто — встроенная PostgreSQL.
+    @Param({""})
+    String jdbcUrl;
+
+    @Param({"stat"})
+    String username;
+
+    @Param({"stat"})
+    String password;
+
+    @Param({"MEMORY", "DATABASE"})
+    RecommendationsProperties.Source source;
+
+    @Param({"10", "50"})
+    int limit;
+
+    @Param({"2000"})
+    int users;
+
+    @Param({"5000"})
+    int events;
+
+    // -- analyzer.similarity-index.max-neighbours; оба источника видят одинаковое число соседей события.
+    @Param({"0"})
+    int maxNeighbours;
+
+    // -- analyzer.weights.*: значения из конфигурации анализатора в config-server.
+    @Param({"0.4"})
+    double viewWeight;
+
+    @Param({"0.8"})
+    double registerWeight;
+
+    @Param({"1.0"})
+    double likeWeight;
+
+    EmbeddedPostgres postgres;
+    SingleConnectionDataSource dataSource;
+    AnnotationConfigApplicationContext context;
+    analyzer.service.impl.RecommendationsService service;
+    UserPredictionsRequestProto[] requests;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        if (jdbcUrl.isEmpty()) {
+            postgres = EmbeddedPostgres.start();
+            dataSource = new SingleConnectionDataSource(
+                    postgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true", true);
+        } else {
+            dataSource = new SingleConnectionDataSource(jdbcUrl, username, password, true);
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA);
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+
+        SimilarityIndexProperties indexProperties = new SimilarityIndexProperties();
+        indexProperties.setMaxNeighbours(maxNeighbours);
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(DataSource.class, () -> dataSource);
+        context.registerBean(SimilarityIndexProperties.class, () -> indexProperties);
+        context.register(JpaConfiguration.class);
+        context.refresh();
+        UserActionRepository userActionRepository = context.getBean(UserActionRepository.class);
+
+        WeightProperties weightProperties = new WeightProperties();
+        weightProperties.setView(viewWeight);
+        weightProperties.setRegister(registerWeight);
+        weightProperties.setLike(likeWeight);
+        fill(userActionRepository, context.getBean(EventSimilarityRepository.class), weightProperties,
+                Workloads.userActions(users * 40, users, events, 1.0, 42),
+                Workloads.similarities(events * 40, events, 1.0, 43));
+
+        SimilarityIndex similarityIndex = new SimilarityIndex(context.getBean(JdbcTemplate.class),
+                context.getBean(PlatformTransactionManager.class), indexProperties);
+        similarityIndex.load();
+        RecommendationCacheProperties cacheProperties = new RecommendationCacheProperties();
+        cacheProperties.setEnabled(false);
+        RecommendationsProperties properties = new RecommendationsProperties();
+        properties.setSource(source);
+        service = new analyzer.service.impl.RecommendationsService(userActionRepository,
+                new WeightDecay(new DecayProperties()), similarityIndex,
+                new RecentInteractions(userActionRepository, new RecentInteractionsProperties()),
+                new SeenEvents(userActionRepository, new SeenEventsProperties()),
+                null, new RecommendationCache(cacheProperties), properties);
+
+        requests = new UserPredictionsRequestProto[users];
+        for (int i = 0; i < users; i++) {
+            requests[i] = UserPredictionsRequestProto.newBuilder().setUserId(i + 1).setMaxResult(limit).build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        new JdbcTemplate(dataSource).execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        // -- Источник данных зарегистрирован в контексте бином, и контекст закрывает соединение.
+        context.close();
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Benchmark
+    public List<RecommendedEventProto> getRecommendationsForUser() {
+        UserPredictionsRequestProto request = requests[next];
+        next = (next + 1) % requests.length;
+        return service.getRecommendationsForUser(request);
+    }
+
+    // -- Записывает действия и оценки схожести пачками через upsert репозиториев. Как и в сервисе, из действий
+    // -- пользователя с событием внутри пачки остается действие с наибольшим весом.
+    private static void fill(UserActionRepository userActionRepository,
+                             EventSimilarityRepository similarityRepository, WeightProperties weightProperties,
+                             List<UserActionAvro> actions, List<EventSimilarityAvro> similarities) {
+        for (int from = 0; from < actions.size(); from += BATCH_SIZE) {
+            Map<List<Long>, UserAction> batch = new LinkedHashMap<>();
+            for (UserActionAvro avro : actions.subList(from, Math.min(from + BATCH_SIZE, actions.size()))) {
+                ActionType type = ActionType.valueOf(avro.getActionType().name());
+                UserAction action = UserAction.builder()
+                        .userId(avro.getUserId())
+                        .eventId(avro.getEventId())
+                        .actionType(type)
+                        .actionWeight(weightProperties.weightOf(type))
+                        .timestamp(avro.getTimestamp())
+                        .build();
+                batch.merge(List.of(avro.getUserId(), avro.getEventId()), action,
+                        (current, candidate) -> candidate.getActionWeight() > current.getActionWeight()
+                                ? candidate : current);
+            }
+            userActionRepository.upsertMaxWeights(batch.values());
+        }
+
+        for (int from = 0; from < similarities.size(); from += BATCH_SIZE) {
+            Map<List<Long>, EventSimilarity> batch = new LinkedHashMap<>();
+            int to = Math.min(from + BATCH_SIZE, similarities.size());
+            for (EventSimilarityAvro avro : similarities.subList(from, to)) {
+                batch.put(List.of(avro.getEventA(), avro.getEventB()), EventSimilarity.builder()
+                        .eventA(avro.getEventA())
+                        .eventB(avro.getEventB())
+                        .score(avro.getScore())
+                        .timestamp(avro.getTimestamp())
+                        .build());
+            }
+            similarityRepository.upsertAll(batch.values());
+        }
+    }
+
+    // -- Та часть контекста анализатора, от которой зависят репозитории: JPA поверх единственного соединения
+    // -- бенчмарка и шаблоны JDBC для SQL-фрагментов репозиториев.
+    @Configuration
+    @EnableJpaRepositories(basePackageClasses = UserActionRepository.class)
+    static class JpaConfiguration {
+        @Bean
+        JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate(JdbcTemplate jdbcTemplate) {
+            return new NamedParameterJdbcTemplate(jdbcTemplate);
+        }
+
+        @Bean
+        LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+            LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+            factory.setDataSource(dataSource);
+            factory.setPackagesToScan(UserAction.class.getPackageName());
+            factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            return factory;
+        }
+
+        @Bean
+        PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+            return new JpaTransactionManager(entityManagerFactory);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package analyzer.service.impl;
+
+import benchmarks.workload.ZipfGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.grpc.ewm.dashboard.message.RecommendedEventProto;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итоговый скоринг персональных рекомендаций: заполнение {@link CandidateScorer} соседями кандидатов,
+ * массив различных соседей для запроса оценок, оценки пользователя и отбор лучших limit, без обращений к базе
+ * и индексу схожести.
+ * Как и в сервисе, кандидатов и соседей у каждого кандидата по limit штук; пользователь оценил
+ * примерно половину соседей. Лежит в пакете сервиса, потому что скоринг доступен только внутри пакета.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommendationsServiceBenchmark {
+    @Param({"10", "50", "200"})
+    int limit;
+
+    @Param({"20000"})
+    int events;
+
+    CandidateScorer scorer;
+    long[] candidateIds;
+    long[][] neighbourIds;
+    double[][] similarities;
+    // -- Оценки пользователя в том виде, в каком их отдает forEachActionWeight.
+    long[] ratedIds;
+    double[] ratedWeights;
+
+    @Setup
+    public void setup() {
+        scorer = new CandidateScorer();
+        ZipfGenerator eventIds = new ZipfGenerator(events, 1.0, 42);
+        SplittableRandom random = new SplittableRandom(43);
+
+        Set<Long> candidates = new LinkedHashSet<>();
+        while (candidates.size() < limit) {
+            candidates.add(eventIds.next());
+        }
+        candidateIds = candidates.stream().mapToLong(Long::longValue).toArray();
+
+        neighbourIds = new long[limit][limit];
+        similarities = new double[limit][limit];
+        Map<Long, Double> userRatings = new LinkedHashMap<>();
+        for (int c = 0; c < limit; c++) {
+            for (int i = 0; i < limit; i++) {
+                long neighbourId = eventIds.next();
+                neighbourIds[c][i] = neighbourId;
+                similarities[c][i] = random.nextDouble();
+                if (random.nextBoolean()) {
+                    userRatings.put(neighbourId, random.nextBoolean() ? 1.0 : 0.4);
+                }
+            }
+        }
+        ratedIds = userRatings.keySet().stream().mapToLong(Long::longValue).toArray();
+        ratedWeights = userRatings.values().stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    @Benchmark
+    public List<RecommendedEventProto> scoreCandidates() {
+        scorer.reset();
+        for (int c = 0; c < candidateIds.length; c++) {
+            scorer.addCandidate(candidateIds[c]);
+            for (int i = 0; i < neighbourIds[c].length; i++) {
+                scorer.accept(neighbourIds[c][i], similarities[c][i]);
+            }
+        }
+        // -- Массив различных соседей ушел бы в запрос оценок; он же готовит таблицу оценок.
+        scorer.neighbourIds();
+        for (int i = 0; i < ratedIds.length; i++) {
+            scorer.rate(ratedIds[i], ratedWeights[i]);
+        }
+        scorer.applyRatings(1.0);
+        return scorer.top(limit);
+    }
+}
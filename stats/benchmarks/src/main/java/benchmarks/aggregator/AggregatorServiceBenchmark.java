@@ -0,0 +1,119 @@
+package benchmarks.aggregator;
+
+import aggregator.kafka.config.AggregatorProperties;
+import aggregator.kafka.producer.SimilarityProducer;
+import aggregator.service.AggregatorService;
+import benchmarks.workload.Workloads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность агрегатора на пачках действий: применение весов, пересчет скалярных произведений
+ * и расчет оценок затронутых пар. Результат — действий в секунду.
+ * Перед каждой итерацией агрегатор создается заново и прогревается первыми preload действиями потока,
+ * чтобы каждая итерация работала на одинаковом по объему состоянии. Параметр shards — число шардов
+ * движка скалярных произведений (aggregator.engine.shards); на нем видно масштабирование по ядрам.
+ * Запускать на машине с не меньшим числом свободных ядер, чем shards: на одном ядре шарды только мешают друг другу.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AggregatorServiceBenchmark {
+    private static final int BATCH_SIZE = 500;
+
+    @Param({"1", "2", "4", "8"})
+    int shards;
+
+    @Param({"1.0"})
+    double zipfExponent;
+
+    @Param({"100000"})
+    int users;
+
+    @Param({"20000"})
+    int events;
+
+    @Param({"200000"})
+    int preload;
+
+    List<UserActionAvro> actions;
+    AggregatorService service;
+    int cursor;
+    long emitted;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        actions = Workloads.userActions(preload + 2_000_000, users, events, zipfExponent, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void prepare() throws IOException {
+        AggregatorProperties properties = new AggregatorProperties();
+        properties.setWeights(Map.of(ActionTypeAvro.VIEW, 0.4, ActionTypeAvro.REGISTER, 0.8, ActionTypeAvro.LIKE, 1.0));
+        properties.getEngine().setShards(shards);
+        properties.getEviction().setDirectory(Files.createTempDirectory("aggregator-benchmark"));
+
+        service = new AggregatorService(new CountingProducer(this), properties);
+        for (int from = 0; from < preload; from += BATCH_SIZE) {
+            service.calculateSimilarities(actions.subList(from, Math.min(from + BATCH_SIZE, preload)));
+        }
+        cursor = preload;
+    }
+
+    @TearDown(Level.Iteration)
+    public void shutdown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void calculateSimilarities(Blackhole blackhole) {
+        if (cursor + BATCH_SIZE > actions.size()) {
+            cursor = preload;
+        }
+        service.calculateSimilarities(actions.subList(cursor, cursor + BATCH_SIZE));
+        cursor += BATCH_SIZE;
+        blackhole.consume(emitted);
+    }
+
+    // -- Вместо отправки в Kafka только считает оценки, чтобы их расчет не был выброшен JIT.
+    private static class CountingProducer extends SimilarityProducer {
+        private final AggregatorServiceBenchmark benchmark;
+
+        CountingProducer(AggregatorServiceBenchmark benchmark) {
+            super(null, new SimpleMeterRegistry(), "benchmark");
+            this.benchmark = benchmark;
+        }
+
+        @Override
+        public void sendSimilarityScores(List<EventSimilarityAvro> messages) {
+            benchmark.emitted += messages.size();
+        }
+    }
+}
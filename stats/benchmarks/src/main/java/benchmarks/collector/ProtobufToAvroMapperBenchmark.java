@@ -0,0 +1,67 @@
+package benchmarks.collector;
+
+import benchmarks.workload.Workloads;
+import collector.mapper.ProtobufToAvroMapper;
+import collector.mapper.ProtobufToAvroMapperImpl;
+import com.google.protobuf.Timestamp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.grpc.ewm.stats.message.ActionTypeProto;
+import ru.practicum.grpc.ewm.stats.message.UserActionProto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Преобразование gRPC-сообщения коллектора в Avro: {@link ProtobufToAvroMapper#toAvro}.
+ * Одна операция — одно действие пользователя.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtobufToAvroMapperBenchmark {
+    // -- Размер кольца сообщений, степень двойки.
+    private static final int MESSAGES = 4096;
+
+    ProtobufToAvroMapper mapper;
+    UserActionProto[] requests;
+    int index;
+
+    @Setup
+    public void setup() {
+        mapper = new ProtobufToAvroMapperImpl();
+        List<UserActionAvro> actions = Workloads.userActions(MESSAGES, 100_000, 20_000, 1.0, 42);
+        requests = actions.stream()
+                .map(action -> UserActionProto.newBuilder()
+                        .setUserId(action.getUserId())
+                        .setEventId(action.getEventId())
+                        .setActionType(switch (action.getActionType()) {
+                            case VIEW -> ActionTypeProto.ACTION_VIEW;
+                            case REGISTER -> ActionTypeProto.ACTION_REGISTER;
+                            case LIKE -> ActionTypeProto.ACTION_LIKE;
+                        })
+                        .setTimestamp(Timestamp.newBuilder()
+                                .setSeconds(action.getTimestamp().getEpochSecond())
+                                .setNanos(action.getTimestamp().getNano()))
+                        .build())
+                .toArray(UserActionProto[]::new);
+    }
+
+    @Benchmark
+    public UserActionAvro toAvro() {
+        index = (index + 1) & (MESSAGES - 1);
+        return mapper.toAvro(requests[index]);
+    }
+}
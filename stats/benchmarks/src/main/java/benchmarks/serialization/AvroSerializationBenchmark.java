@@ -0,0 +1,91 @@
+package benchmarks.serialization;
+
+import benchmarks.workload.Workloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.kafka.deserializer.EventSimilarityAvroDeserializer;
+import ru.practicum.kafka.deserializer.UserActionAvroDeserializer;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация и десериализация сообщений Kafka: {@link GeneralAvroSerializer} и наследники
+ * BaseAvroDeserializer для обоих топиков. Одна операция — одно сообщение.
+ * Аллокации на сообщение видны с профайлером -prof gc.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvroSerializationBenchmark {
+    private static final String TOPIC = "benchmark";
+    // -- Размер кольца сообщений, степень двойки.
+    private static final int MESSAGES = 4096;
+
+    GeneralAvroSerializer serializer;
+    UserActionAvroDeserializer userActionDeserializer;
+    EventSimilarityAvroDeserializer similarityDeserializer;
+
+    UserActionAvro[] userActions;
+    EventSimilarityAvro[] similarities;
+    byte[][] userActionBytes;
+    byte[][] similarityBytes;
+    int index;
+
+    @Setup
+    public void setup() {
+        serializer = new GeneralAvroSerializer();
+        userActionDeserializer = new UserActionAvroDeserializer();
+        similarityDeserializer = new EventSimilarityAvroDeserializer();
+
+        List<UserActionAvro> actions = Workloads.userActions(MESSAGES, 100_000, 20_000, 1.0, 42);
+        List<EventSimilarityAvro> scores = Workloads.similarities(MESSAGES, 20_000, 1.0, 42);
+        userActions = actions.toArray(UserActionAvro[]::new);
+        similarities = scores.toArray(EventSimilarityAvro[]::new);
+        userActionBytes = new byte[MESSAGES][];
+        similarityBytes = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            userActionBytes[i] = serializer.serialize(TOPIC, userActions[i]);
+            similarityBytes[i] = serializer.serialize(TOPIC, similarities[i]);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeUserAction() {
+        return serializer.serialize(TOPIC, userActions[next()]);
+    }
+
+    @Benchmark
+    public byte[] serializeSimilarity() {
+        return serializer.serialize(TOPIC, similarities[next()]);
+    }
+
+    @Benchmark
+    public UserActionAvro deserializeUserAction() {
+        return userActionDeserializer.deserialize(TOPIC, userActionBytes[next()]);
+    }
+
+    @Benchmark
+    public EventSimilarityAvro deserializeSimilarity() {
+        return similarityDeserializer.deserialize(TOPIC, similarityBytes[next()]);
+    }
+
+    private int next() {
+        index = (index + 1) & (MESSAGES - 1);
+        return index;
+    }
+}
@@ -0,0 +1,32 @@
+package benchmarks.workload;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Генератор целых чисел 1..n с распределением Zipf: вероятность значения k пропорциональна 1 / k^exponent.
+ * Так распределены реальные взаимодействия: немногие популярные события и активные пользователи
+ * дают основную часть действий. Функция распределения считается заранее, выборка — бинарный поиск.
+ */
+public class ZipfGenerator {
+    private final double[] cumulative;
+    private final SplittableRandom random;
+
+    public ZipfGenerator(int n, double exponent, long seed) {
+        this.cumulative = new double[n];
+        double sum = 0.0;
+        for (int k = 1; k <= n; k++) {
+            sum += 1.0 / Math.pow(k, exponent);
+            cumulative[k - 1] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        this.random = new SplittableRandom(seed);
+    }
+
+    public long next() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return (index >= 0 ? index : -index - 1) + 1;
+    }
+}